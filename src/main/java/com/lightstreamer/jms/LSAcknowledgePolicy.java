@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+/**
+ * Policy by which a session in {@link javax.jms.Session#DUPS_OK_ACKNOWLEDGE} mode coalesces the
+ * acknowledgements of the messages it consumes.
+ *
+ * <p>Consumed messages are acknowledged lazily, with a single acknowledgement covering all the
+ * messages consumed in the meantime. Pending acknowledgements are sent when the maximum delay since
+ * the first of them expires or when the maximum number of pending messages is reached, whichever
+ * comes first. A longer delay or a larger number reduce the acknowledgements sent, at the cost of
+ * more messages being redelivered if the session fails.
+ *
+ * <p>With an adaptive policy the session also tracks the rate at which messages are consumed, and
+ * sends pending acknowledgements immediately when the next message is not expected within the
+ * maximum delay, since waiting would not coalesce them any further. This way low-rate consumers do
+ * not hold unacknowledged messages for the whole delay, while high-rate consumers still coalesce
+ * their acknowledgements.
+ *
+ * <p>Policies are immutable and may be shared among factories and sessions.
+ *
+ * @see LSConnectionFactory#setAcknowledgePolicy(LSAcknowledgePolicy)
+ * @see LSSession#setAcknowledgePolicy(LSAcknowledgePolicy)
+ */
+public final class LSAcknowledgePolicy {
+
+  /**
+   * The default policy: acknowledgements are sent 150 milliseconds after the first pending one,
+   * with no limit on the number of pending messages.
+   */
+  public static final LSAcknowledgePolicy DEFAULT = new LSAcknowledgePolicy(0, 150, false);
+
+  private final int maxMessages;
+  private final long maxDelay;
+  private final boolean adaptive;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  private LSAcknowledgePolicy(int maxMessages, long maxDelay, boolean adaptive) {
+    this.maxMessages = maxMessages;
+    this.maxDelay = maxDelay;
+    this.adaptive = adaptive;
+  }
+
+  /**
+   * Returns a policy sending pending acknowledgements after the specified number of messages or the
+   * specified delay, whichever comes first.
+   *
+   * @param maxMessages the maximum number of pending messages, 0 means not limited
+   * @param maxDelay the maximum delay (in milliseconds) since the first pending message, 0 means
+   *     that messages are acknowledged as soon as they are consumed
+   * @return the policy
+   * @throws IllegalArgumentException if either value is negative
+   */
+  public static LSAcknowledgePolicy of(int maxMessages, long maxDelay) {
+    return create(maxMessages, maxDelay, false);
+  }
+
+  /**
+   * Returns a policy sending pending acknowledgements after the specified number of messages or the
+   * specified delay, whichever comes first, or immediately when the observed consumption rate is
+   * too low for the next message to arrive within the delay.
+   *
+   * @param maxMessages the maximum number of pending messages, 0 means not limited
+   * @param maxDelay the maximum delay (in milliseconds) since the first pending message, 0 means
+   *     that messages are acknowledged as soon as they are consumed
+   * @return the policy
+   * @throws IllegalArgumentException if either value is negative
+   */
+  public static LSAcknowledgePolicy adaptive(int maxMessages, long maxDelay) {
+    return create(maxMessages, maxDelay, true);
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Public operations
+
+  /**
+   * Returns the maximum number of pending messages.
+   *
+   * @return the maximum number of pending messages, 0 if not limited
+   */
+  public int getMaxMessages() {
+    return maxMessages;
+  }
+
+  /**
+   * Returns the maximum delay since the first pending message.
+   *
+   * @return the maximum delay (in milliseconds)
+   */
+  public long getMaxDelay() {
+    return maxDelay;
+  }
+
+  /**
+   * Returns whether the policy adapts to the observed consumption rate.
+   *
+   * @return {@code true} if the policy is adaptive
+   */
+  public boolean isAdaptive() {
+    return adaptive;
+  }
+
+  @Override
+  public String toString() {
+    return "LSAcknowledgePolicy[maxMessages="
+        + maxMessages
+        + ", maxDelay="
+        + maxDelay
+        + ", adaptive="
+        + adaptive
+        + "]";
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Internals
+
+  private static LSAcknowledgePolicy create(int maxMessages, long maxDelay, boolean adaptive) {
+    if (maxMessages < 0) {
+      throw new IllegalArgumentException("Max messages can't be negative");
+    }
+    if (maxDelay < 0) {
+      throw new IllegalArgumentException("Max delay can't be negative");
+    }
+
+    return new LSAcknowledgePolicy(maxMessages, maxDelay, adaptive);
+  }
+}
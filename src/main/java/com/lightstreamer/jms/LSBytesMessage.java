@@ -19,25 +19,31 @@ import com.lightstreamer.jms.descriptors.MessageKind;
 import com.lightstreamer.log.LogManager;
 import com.lightstreamer.log.Logger;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import javax.jms.BytesMessage;
 import javax.jms.JMSException;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageFormatException;
+import javax.jms.MessageNotReadableException;
 import javax.jms.MessageNotWriteableException;
 
-class LSBytesMessage extends LSMessage<byte[]> implements BytesMessage {
+class LSBytesMessage extends LSMessage<ByteBuffer> implements BytesMessage {
 
   private static final Logger log = LogManager.getLogger("lightstreamer.jms.message.bytes");
 
-  private boolean readMode;
+  // Capacity of the body buffer on the first write
+  private static final int INITIAL_CAPACITY = 32;
 
-  private DataInputStream dataInput;
-  private ByteArrayInputStream byteInput;
+  // Maximum length of a string encoded by writeUTF, in bytes
+  private static final int MAX_UTF_LENGTH = 65535;
 
-  private DataOutputStream dataOutput;
-  private ByteArrayOutputStream byteOutput;
+  // The body buffer is positioned at the next byte to write in write-only mode,
+  // and at the next byte to read, with the body length as limit, in read-only mode
+  private boolean readMode;
 
   /////////////////////////////////////////////////////////////////////////
   // Initialization
@@ -45,44 +51,130 @@ class LSBytesMessage extends LSMessage<byte[]> implements BytesMessage {
   LSBytesMessage(LSSessionImpl session) {
     super(session, MessageKind.BYTES_MESSAGE);
 
-    body = new byte[] {};
+    body = ByteBuffer.allocate(0);
 
     readMode = false;
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
 
-    byteInput = null;
-    dataInput = null;
+  synchronized ByteBuffer getBody() throws JMSException {
+    ensureBody();
+    return content().asReadOnlyBuffer();
+  }
+
+  synchronized String getEncodedBody() throws JMSException {
+    ensureBody();
+
+    // Encoding a heap buffer reads its backing array directly
+    ByteBuffer encoded = Base64.getEncoder().encode(content());
+    return new String(encoded.array(), 0, encoded.limit(), StandardCharsets.ISO_8859_1);
+  }
+
+  synchronized void setEncodedBytes(String payload) {
+    setRawBody(payload);
 
-    byteOutput = new ByteArrayOutputStream();
-    dataOutput = new DataOutputStream(byteOutput);
+    // Received messages are read-only
+    readMode = true;
   }
 
   /////////////////////////////////////////////////////////////////////////
-  // Package private operations
+  // Internals
 
-  private void checkReadMode() throws MessageNotWriteableException {
+  private void checkReadMode() throws MessageNotReadableException {
+    if (!readMode) {
+      throw new MessageNotReadableException("Message is in write-only mode");
+    }
+  }
+
+  private void checkWriteMode() throws MessageNotWriteableException {
     if (readMode) {
       throw new MessageNotWriteableException("Message is in read-only mode");
     }
   }
 
-  synchronized byte[] getBody() {
+  private ByteBuffer content() {
+    // A view of the whole body, independent of the current read or write position
+    ByteBuffer content = body.duplicate();
+    content.limit(readMode ? body.limit() : body.position());
+    content.position(0);
+    return content;
+  }
+
+  private ByteBuffer readBuffer(int size) throws JMSException {
+    checkReadMode();
+    ensureBody();
+
+    if (body.remaining() < size) {
+      throw new MessageEOFException("Unexpected end of message body");
+    }
+
+    return body;
+  }
+
+  private ByteBuffer writeBuffer(int size) throws JMSException {
+    checkWriteMode();
+
+    if (body.remaining() < size) {
+      int required = body.position() + size;
+      if (required < 0) {
+        throw new JMSException("Message body exceeds the maximum length");
+      }
+
+      // Grow geometrically, so that a sequence of writes is copied a bounded number of times
+      int capacity = Math.max(Math.max(body.capacity() * 2, INITIAL_CAPACITY), required);
+      if (capacity < 0) {
+        capacity = required;
+      }
+
+      ByteBuffer grown = ByteBuffer.allocate(capacity);
+      body.flip();
+      grown.put(body);
+      body = grown;
+    }
+
     return body;
   }
 
   /////////////////////////////////////////////////////////////////////////
   // Overrides from LsMessage
 
+  @Override
+  protected void decodeBody(String rawBody) throws JMSException {
+    try {
+      // Adopt the decoded array, without copying it
+      body = ByteBuffer.wrap(Base64.getDecoder().decode(rawBody));
+    } catch (IllegalArgumentException iae) {
+      throw new MessageFormatException("Cannot decode bytes message: " + iae.getMessage());
+    }
+  }
+
   @Override
   public synchronized void clearBody() throws JMSException {
-    body = new byte[] {};
+    discardRawBody();
+    body = ByteBuffer.allocate(0);
 
     readMode = false;
+  }
+
+  @Override
+  public synchronized <X> X getBody(Class<X> c) throws JMSException {
+    if (!c.isAssignableFrom(byte[].class)) {
+      throw new MessageFormatException("Body cannot be assigned to " + c.getName());
+    }
 
-    byteInput = null;
-    dataInput = null;
+    ByteBuffer content = getBody();
+    byte[] bytes = new byte[content.remaining()];
+    content.get(bytes);
 
-    byteOutput = new ByteArrayOutputStream();
-    dataOutput = new DataOutputStream(byteOutput);
+    return c.cast(bytes);
+  }
+
+  @Override
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public synchronized boolean isBodyAssignableTo(Class c) throws JMSException {
+    return c.isAssignableFrom(byte[].class);
   }
 
   /////////////////////////////////////////////////////////////////////////
@@ -90,301 +182,190 @@ class LSBytesMessage extends LSMessage<byte[]> implements BytesMessage {
 
   @Override
   public synchronized long getBodyLength() throws JMSException {
-    checkReadMode();
-    return body.length;
+    return readBuffer(0).limit();
   }
 
   @Override
   public synchronized boolean readBoolean() throws JMSException {
-    checkReadMode();
-
-    try {
-      return dataInput.readBoolean();
-    } catch (IOException ioe) {
-      log.error("I/O exception while reading: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while reading: " + ioe.getMessage());
-    }
+    return readBuffer(1).get() != 0;
   }
 
   @Override
   public synchronized byte readByte() throws JMSException {
-    checkReadMode();
-
-    try {
-      return dataInput.readByte();
-    } catch (IOException ioe) {
-      log.error("I/O exception while reading: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while reading: " + ioe.getMessage());
-    }
+    return readBuffer(1).get();
   }
 
   @Override
   public synchronized int readUnsignedByte() throws JMSException {
-    checkReadMode();
-
-    try {
-      return dataInput.readUnsignedByte();
-    } catch (IOException ioe) {
-      log.error("I/O exception while reading: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while reading: " + ioe.getMessage());
-    }
+    return readBuffer(1).get() & 0xFF;
   }
 
   @Override
   public synchronized short readShort() throws JMSException {
-    checkReadMode();
-
-    try {
-      return dataInput.readShort();
-    } catch (IOException ioe) {
-      log.error("I/O exception while reading: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while reading: " + ioe.getMessage());
-    }
+    return readBuffer(2).getShort();
   }
 
   @Override
   public synchronized int readUnsignedShort() throws JMSException {
-    checkReadMode();
-
-    try {
-      return dataInput.readUnsignedShort();
-    } catch (IOException ioe) {
-      log.error("I/O exception while reading: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while reading: " + ioe.getMessage());
-    }
+    return readBuffer(2).getShort() & 0xFFFF;
   }
 
   @Override
   public synchronized char readChar() throws JMSException {
-    checkReadMode();
-
-    try {
-      return dataInput.readChar();
-    } catch (IOException ioe) {
-      log.error("I/O exception while reading: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while reading: " + ioe.getMessage());
-    }
+    return readBuffer(2).getChar();
   }
 
   @Override
   public synchronized int readInt() throws JMSException {
-    checkReadMode();
-
-    try {
-      return dataInput.readInt();
-    } catch (IOException ioe) {
-      log.error("I/O exception while reading: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while reading: " + ioe.getMessage());
-    }
+    return readBuffer(4).getInt();
   }
 
   @Override
   public synchronized long readLong() throws JMSException {
-    checkReadMode();
-
-    try {
-      return dataInput.readLong();
-    } catch (IOException ioe) {
-      log.error("I/O exception while reading: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while reading: " + ioe.getMessage());
-    }
+    return readBuffer(8).getLong();
   }
 
   @Override
   public synchronized float readFloat() throws JMSException {
-    checkReadMode();
-
-    try {
-      return dataInput.readFloat();
-    } catch (IOException ioe) {
-      log.error("I/O exception while reading: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while reading: " + ioe.getMessage());
-    }
+    return readBuffer(4).getFloat();
   }
 
   @Override
   public synchronized double readDouble() throws JMSException {
-    checkReadMode();
-
-    try {
-      return dataInput.readDouble();
-    } catch (IOException ioe) {
-      log.error("I/O exception while reading: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while reading: " + ioe.getMessage());
-    }
+    return readBuffer(8).getDouble();
   }
 
   @Override
   public synchronized String readUTF() throws JMSException {
-    checkReadMode();
+    ByteBuffer buffer = readBuffer(2);
+
+    int position = buffer.position();
+    int length = 2 + (buffer.getShort(position) & 0xFFFF);
+    if (buffer.remaining() < length) {
+      throw new MessageEOFException("Unexpected end of message body");
+    }
 
     try {
-      return dataInput.readUTF();
+      // Decode the modified UTF-8 string straight from the backing array
+      String value =
+          DataInputStream.readUTF(
+              new DataInputStream(
+                  new ByteArrayInputStream(
+                      buffer.array(), buffer.arrayOffset() + position, length)));
+
+      buffer.position(position + length);
+      return value;
     } catch (IOException ioe) {
       log.error("I/O exception while reading: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while reading: " + ioe.getMessage());
+      throw new MessageFormatException("I/O exception while reading: " + ioe.getMessage());
     }
   }
 
   @Override
   public synchronized int readBytes(byte[] value) throws JMSException {
-    checkReadMode();
-
-    try {
-      return dataInput.read(value);
-    } catch (IOException ioe) {
-      log.error("I/O exception while reading: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while reading: " + ioe.getMessage());
-    }
+    return readBytes(value, value.length);
   }
 
   @Override
   public synchronized int readBytes(byte[] value, int length) throws JMSException {
-    checkReadMode();
+    if (length < 0 || length > value.length) {
+      throw new IndexOutOfBoundsException("Invalid length: " + length);
+    }
 
-    try {
-      return dataInput.read(value, 0, length);
-    } catch (IOException ioe) {
-      log.error("I/O exception while reading: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while reading: " + ioe.getMessage());
+    ByteBuffer buffer = readBuffer(0);
+    if (!buffer.hasRemaining()) {
+      return -1;
     }
+
+    int count = Math.min(length, buffer.remaining());
+    buffer.get(value, 0, count);
+    return count;
   }
 
   @Override
   public synchronized void writeBoolean(boolean value) throws JMSException {
-    checkReadMode();
-
-    try {
-      dataOutput.writeBoolean(value);
-    } catch (IOException ioe) {
-      log.error("I/O exception while writing: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while writing: " + ioe.getMessage());
-    }
+    writeBuffer(1).put(value ? (byte) 1 : (byte) 0);
   }
 
   @Override
   public synchronized void writeByte(byte value) throws JMSException {
-    checkReadMode();
-
-    try {
-      dataOutput.writeByte(value);
-    } catch (IOException ioe) {
-      log.error("I/O exception while writing: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while writing: " + ioe.getMessage());
-    }
+    writeBuffer(1).put(value);
   }
 
   @Override
   public synchronized void writeShort(short value) throws JMSException {
-    checkReadMode();
-
-    try {
-      dataOutput.writeShort(value);
-    } catch (IOException ioe) {
-      log.error("I/O exception while writing: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while writing: " + ioe.getMessage());
-    }
+    writeBuffer(2).putShort(value);
   }
 
   @Override
   public synchronized void writeChar(char value) throws JMSException {
-    checkReadMode();
-
-    try {
-      dataOutput.writeChar(value);
-    } catch (IOException ioe) {
-      log.error("I/O exception while writing: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while writing: " + ioe.getMessage());
-    }
+    writeBuffer(2).putChar(value);
   }
 
   @Override
   public synchronized void writeInt(int value) throws JMSException {
-    checkReadMode();
-
-    try {
-      dataOutput.writeInt(value);
-    } catch (IOException ioe) {
-      log.error("I/O exception while writing: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while writing: " + ioe.getMessage());
-    }
+    writeBuffer(4).putInt(value);
   }
 
   @Override
   public synchronized void writeLong(long value) throws JMSException {
-    checkReadMode();
-
-    try {
-      dataOutput.writeLong(value);
-    } catch (IOException ioe) {
-      log.error("I/O exception while writing: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while writing: " + ioe.getMessage());
-    }
+    writeBuffer(8).putLong(value);
   }
 
   @Override
   public synchronized void writeFloat(float value) throws JMSException {
-    checkReadMode();
-
-    try {
-      dataOutput.writeFloat(value);
-    } catch (IOException ioe) {
-      log.error("I/O exception while writing: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while writing: " + ioe.getMessage());
-    }
+    writeBuffer(4).putFloat(value);
   }
 
   @Override
   public synchronized void writeDouble(double value) throws JMSException {
-    checkReadMode();
-
-    try {
-      dataOutput.writeDouble(value);
-    } catch (IOException ioe) {
-      log.error("I/O exception while writing: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while writing: " + ioe.getMessage());
-    }
+    writeBuffer(8).putDouble(value);
   }
 
   @Override
   public synchronized void writeUTF(String value) throws JMSException {
-    checkReadMode();
+    // Same modified UTF-8 encoding as DataOutput.writeUTF
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      length += (c >= 0x0001 && c <= 0x007F) ? 1 : (c > 0x07FF) ? 3 : 2;
+    }
 
-    try {
-      dataOutput.writeUTF(value);
-    } catch (IOException ioe) {
-      log.error("I/O exception while writing: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while writing: " + ioe.getMessage());
+    if (length > MAX_UTF_LENGTH) {
+      throw new MessageFormatException("String too long to be written: " + length + " bytes");
+    }
+
+    ByteBuffer buffer = writeBuffer(2 + length);
+    buffer.putShort((short) length);
+
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c >= 0x0001 && c <= 0x007F) {
+        buffer.put((byte) c);
+      } else if (c > 0x07FF) {
+        buffer.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+        buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+        buffer.put((byte) (0x80 | (c & 0x3F)));
+      } else {
+        buffer.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+        buffer.put((byte) (0x80 | (c & 0x3F)));
+      }
     }
   }
 
   @Override
   public synchronized void writeBytes(byte[] value) throws JMSException {
-    checkReadMode();
-
-    try {
-      dataOutput.write(value);
-    } catch (IOException ioe) {
-      log.error("I/O exception while writing: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while writing: " + ioe.getMessage());
-    }
+    writeBuffer(value.length).put(value);
   }
 
   @Override
   public synchronized void writeBytes(byte[] value, int offset, int length) throws JMSException {
-    checkReadMode();
-
-    try {
-      dataOutput.write(value, offset, length);
-    } catch (IOException ioe) {
-      log.error("I/O exception while writing: " + ioe.getMessage(), ioe);
-      throw new JMSException("I/O exception while writing: " + ioe.getMessage());
-    }
+    writeBuffer(length).put(value, offset, length);
   }
 
   @Override
   public synchronized void writeObject(Object value) throws JMSException {
-    checkReadMode();
+    checkWriteMode();
 
     if (value instanceof Boolean) {
       writeBoolean((Boolean) value);
@@ -413,24 +394,14 @@ class LSBytesMessage extends LSMessage<byte[]> implements BytesMessage {
 
   @Override
   public synchronized void reset() throws JMSException {
-    if (!readMode) {
-
-      // Get the buffer written so far and switch to read-only mode
-      body = byteOutput.toByteArray();
-
-      byteInput = new ByteArrayInputStream(body);
-      dataInput = new DataInputStream(byteInput);
+    ensureBody();
 
+    if (!readMode) {
+      // Switch to read-only mode over the bytes written so far, without copying them
+      body.flip();
       readMode = true;
-
     } else {
-      try {
-        dataInput.reset();
-      } catch (IOException ioe) {
-        log.error("I/O exception while resetting the input stream: " + ioe.getMessage(), ioe);
-        throw new JMSException(
-            "I/O exception while resetting the input stream: " + ioe.getMessage());
-      }
+      body.rewind();
     }
   }
 }
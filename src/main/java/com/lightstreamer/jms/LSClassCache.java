@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.lightstreamer.jms.utils.JSON;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class LSClassCache {
+
+  // Maximum number of entries of each cache, the least recently used are evicted beyond it
+  private static final int MAX_CACHED_CLASSES = 256;
+
+  // Class loader for object message payloads, null to use the library's one
+  private final ClassLoader classLoader;
+
+  // Kept by the connection, so that application classes are not pinned beyond its life
+  private final Map<String, Class<?>> classes;
+  private final Map<Class<?>, ObjectReader> readers;
+  private final Map<Class<?>, ObjectWriter> writers;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  LSClassCache(ClassLoader classLoader) {
+    this.classLoader = classLoader;
+
+    this.classes = createLruMap();
+    this.readers = createLruMap();
+    this.writers = createLruMap();
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  ClassLoader getClassLoader() {
+    return classLoader;
+  }
+
+  synchronized Class<?> resolveClass(String classFqn) throws ClassNotFoundException {
+    Class<?> clazz = classes.get(classFqn);
+    if (clazz == null) {
+      ClassLoader loader =
+          (classLoader != null) ? classLoader : LSClassCache.class.getClassLoader();
+      clazz = Class.forName(classFqn, true, loader);
+
+      classes.put(classFqn, clazz);
+    }
+
+    return clazz;
+  }
+
+  synchronized ObjectReader getReader(Class<?> clazz) {
+    ObjectReader reader = readers.get(clazz);
+    if (reader == null) {
+      reader = JSON.readerFor(clazz);
+      readers.put(clazz, reader);
+    }
+
+    return reader;
+  }
+
+  synchronized ObjectWriter getWriter(Class<?> clazz) {
+    ObjectWriter writer = writers.get(clazz);
+    if (writer == null) {
+      writer = JSON.writerFor(clazz);
+      writers.put(clazz, writer);
+    }
+
+    return writer;
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Internals
+
+  private static <K, V> Map<K, V> createLruMap() {
+    // Access-ordered, so that the least recently used class is evicted first
+    return new LinkedHashMap<K, V>(16, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > MAX_CACHED_CLASSES;
+      }
+    };
+  }
+}
@@ -28,6 +28,11 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.jms.Connection;
 import javax.jms.ConnectionConsumer;
 import javax.jms.ConnectionMetaData;
@@ -50,6 +55,50 @@ class LSConnection implements Connection {
   private String clientID;
   private ExceptionListener exceptionListener;
 
+  // Executor for message listeners, null to call them on the Lightstreamer event thread
+  private volatile Executor dispatchExecutor;
+
+  // Classes of object message payloads, with their JSON readers and writers
+  private volatile LSClassCache classCache;
+
+  // Limits of the consumer queues, 0 for no limit
+  private volatile int maxConsumerQueuedMessages;
+  private volatile long maxConsumerQueuedBytes;
+  private volatile long maxQueuedBytes;
+
+  // Estimated bytes held by all the consumer queues
+  private final AtomicLong queuedBytes;
+
+  // Consumers paused for exceeding their queue limits, resumed on the shared scheduler
+  private final Set<LSMessageConsumerImpl> pausedConsumers;
+  private final AtomicBoolean resumeScheduled;
+
+  // Whether identical consumers may share a single subscription
+  private volatile boolean consumerMultiplexing;
+
+  // Subscriptions shared by identical consumers, by item descriptor,
+  // guarded by their own lock as consumers join and leave while locked
+  private final Map<String, LSMultiplexedSubscription> multiplexedSubscriptions;
+
+  // Messages lost by the connection, notified only if detection is enabled
+  private volatile boolean messageLossDetection;
+  private final AtomicLong lostMessages;
+
+  // Recent message IDs remembered by each consumer to discard duplicates, 0 if disabled
+  private volatile int duplicateDetectionWindow;
+
+  // Whether consumers discard expired messages instead of delivering them
+  private volatile boolean discardExpiredMessages;
+
+  // Default acknowledge policy of DUPS_OK_ACKNOWLEDGE sessions
+  private volatile LSAcknowledgePolicy acknowledgePolicy;
+
+  // Timeout of temporary destination creations, 0 if they never time out
+  private volatile long temporaryDestinationTimeout;
+
+  // Default message fields requested by consumers, null for all of them
+  private volatile Set<LSMessageField> consumerFields;
+
   private boolean used;
   private boolean open;
   private boolean running;
@@ -95,6 +144,12 @@ class LSConnection implements Connection {
 
     this.sessions = new HashMap<String, LSSessionImpl>();
     this.outcomeCallbacks = new HashMap<String, OutcomeCallback>();
+    this.classCache = new LSClassCache(null);
+    this.queuedBytes = new AtomicLong();
+    this.lostMessages = new AtomicLong();
+    this.pausedConsumers = ConcurrentHashMap.newKeySet();
+    this.resumeScheduled = new AtomicBoolean();
+    this.multiplexedSubscriptions = new HashMap<String, LSMultiplexedSubscription>();
 
     // Subscribe to the asynchronous exception feed
     ItemDescriptor exceptionsDescriptor =
@@ -141,7 +196,8 @@ class LSConnection implements Connection {
 
           @Override
           public void onItemLostUpdates(String itemName, int itemPos, int lostUpdates) {
-            /* Nothing to do here */
+            log.error("Server dropped " + lostUpdates + " asynchronous exception(s)");
+            onMessagesLost(null, lostUpdates, false);
           }
 
           @Override
@@ -307,7 +363,9 @@ class LSConnection implements Connection {
 
           @Override
           public void onItemLostUpdates(String itemName, int itemPos, int lostUpdates) {
-            /* Nothing to do here */
+            // Operations waiting for the lost outcomes will not be notified
+            log.error("Server dropped " + lostUpdates + " operation outcome(s)");
+            onMessagesLost(null, lostUpdates, false);
           }
 
           @Override
@@ -427,6 +485,199 @@ class LSConnection implements Connection {
     return jmsConnector;
   }
 
+  Executor getDispatchExecutor() {
+    return dispatchExecutor;
+  }
+
+  void setDispatchExecutor(Executor dispatchExecutor) {
+    this.dispatchExecutor = dispatchExecutor;
+  }
+
+  void setClassLoader(ClassLoader classLoader) {
+    // Classes cached so far may belong to a different loader
+    if (classLoader != classCache.getClassLoader()) {
+      classCache = new LSClassCache(classLoader);
+    }
+  }
+
+  LSClassCache getClassCache() {
+    return classCache;
+  }
+
+  void setQueueLimits(
+      int maxConsumerQueuedMessages, long maxConsumerQueuedBytes, long maxQueuedBytes) {
+
+    this.maxConsumerQueuedMessages = maxConsumerQueuedMessages;
+    this.maxConsumerQueuedBytes = maxConsumerQueuedBytes;
+    this.maxQueuedBytes = maxQueuedBytes;
+  }
+
+  int getMaxConsumerQueuedMessages() {
+    return maxConsumerQueuedMessages;
+  }
+
+  long getMaxConsumerQueuedBytes() {
+    return maxConsumerQueuedBytes;
+  }
+
+  AtomicLong getQueuedBytes() {
+    return queuedBytes;
+  }
+
+  boolean isQueueFull() {
+    long max = maxQueuedBytes;
+    return (max > 0) && (queuedBytes.get() >= max);
+  }
+
+  boolean isQueueBelowLowWatermark() {
+    long max = maxQueuedBytes;
+    return (max == 0) || (queuedBytes.get() <= max / 2);
+  }
+
+  void addPausedConsumer(LSMessageConsumerImpl consumer) {
+    pausedConsumers.add(consumer);
+  }
+
+  void removePausedConsumer(LSMessageConsumerImpl consumer) {
+    pausedConsumers.remove(consumer);
+  }
+
+  void resumePausedConsumers() {
+    if (pausedConsumers.isEmpty() || !isQueueBelowLowWatermark()) {
+      return;
+    }
+
+    // Messages are dequeued also by session operations holding the session lock, while
+    // resuming locks consumers of any session: resume on the shared scheduler, just once
+    if (resumeScheduled.compareAndSet(false, true)) {
+      LSScheduler.schedule(
+          () -> {
+            resumeScheduled.set(false);
+
+            // Each consumer resumes only if its own queue is below its low watermark, too
+            for (LSMessageConsumerImpl consumer : pausedConsumers) {
+              consumer.resumeIfDrained();
+            }
+          },
+          0);
+    }
+  }
+
+  void setConsumerMultiplexing(boolean consumerMultiplexing) {
+    this.consumerMultiplexing = consumerMultiplexing;
+  }
+
+  boolean isConsumerMultiplexing() {
+    return consumerMultiplexing;
+  }
+
+  void setMessageLossDetection(boolean messageLossDetection) {
+    this.messageLossDetection = messageLossDetection;
+  }
+
+  boolean isMessageLossDetection() {
+    return messageLossDetection;
+  }
+
+  void setDuplicateDetectionWindow(int duplicateDetectionWindow) {
+    this.duplicateDetectionWindow = duplicateDetectionWindow;
+  }
+
+  int getDuplicateDetectionWindow() {
+    return duplicateDetectionWindow;
+  }
+
+  void setDiscardExpiredMessages(boolean discardExpiredMessages) {
+    this.discardExpiredMessages = discardExpiredMessages;
+  }
+
+  boolean isDiscardExpiredMessages() {
+    return discardExpiredMessages;
+  }
+
+  void setAcknowledgePolicy(LSAcknowledgePolicy acknowledgePolicy) {
+    this.acknowledgePolicy = acknowledgePolicy;
+  }
+
+  LSAcknowledgePolicy getAcknowledgePolicy() {
+    return acknowledgePolicy;
+  }
+
+  void setTemporaryDestinationTimeout(long temporaryDestinationTimeout) {
+    this.temporaryDestinationTimeout = temporaryDestinationTimeout;
+  }
+
+  long getTemporaryDestinationTimeout() {
+    return temporaryDestinationTimeout;
+  }
+
+  void onMessagesLost(String destinationName, long count, boolean sequenceGap) {
+    long total = lostMessages.addAndGet(count);
+    if (!messageLossDetection) {
+      return;
+    }
+
+    ExceptionListener anExceptionListener = null;
+    synchronized (this) {
+      anExceptionListener = exceptionListener;
+    }
+
+    // No listener, no party
+    if (anExceptionListener == null) {
+      return;
+    }
+
+    String reason =
+        (destinationName != null)
+            ? count + " message(s) lost for destination " + destinationName
+            : count + " internal update(s) lost";
+
+    LSMessageLossException exception =
+        new LSMessageLossException(reason, destinationName, count, sequenceGap, total);
+
+    // Call the client callback
+    try {
+      anExceptionListener.onException(exception);
+    } catch (Throwable t) {
+      log.error(
+          "Exception while forwarding an event to the exception listener: " + t.getMessage(), t);
+    }
+  }
+
+  void setConsumerFields(Set<LSMessageField> consumerFields) {
+    this.consumerFields = LSConsumerSchema.copyFields(consumerFields);
+  }
+
+  Set<LSMessageField> getConsumerFields() {
+    return consumerFields;
+  }
+
+  LSMultiplexedSubscription joinMultiplexedSubscription(
+      String key, LSMessageConsumerImpl consumer) {
+
+    synchronized (multiplexedSubscriptions) {
+      LSMultiplexedSubscription multiplexed = multiplexedSubscriptions.get(key);
+      if (multiplexed == null) {
+        // The first member provides the subscription
+        multiplexed = new LSMultiplexedSubscription(this, key, consumer);
+        multiplexedSubscriptions.put(key, multiplexed);
+      }
+
+      multiplexed.addMember(consumer);
+      return multiplexed;
+    }
+  }
+
+  void leaveMultiplexedSubscription(
+      LSMultiplexedSubscription multiplexed, LSMessageConsumerImpl consumer) {
+
+    synchronized (multiplexedSubscriptions) {
+      if (multiplexed.removeMember(consumer)) {
+        multiplexedSubscriptions.remove(multiplexed.getKey());
+      }
+    }
+  }
+
   synchronized void setClientIDInternal(String clientId) {
     this.clientID = clientId;
   }
@@ -455,6 +706,10 @@ class LSConnection implements Connection {
     outcomeCallbacks.put(operationId, callback);
   }
 
+  synchronized void removeOutcomeCallback(String operationId) {
+    outcomeCallbacks.remove(operationId);
+  }
+
   /////////////////////////////////////////////////////////////////////////
   // Connection interface
 
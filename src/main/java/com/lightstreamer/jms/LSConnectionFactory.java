@@ -19,6 +19,8 @@ import com.lightstreamer.client.ClientListener;
 import com.lightstreamer.client.LightstreamerClient;
 import com.lightstreamer.log.LogManager;
 import com.lightstreamer.log.Logger;
+import java.util.Set;
+import java.util.concurrent.Executor;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.JMSContext;
@@ -40,6 +42,18 @@ public class LSConnectionFactory implements ConnectionFactory {
   private String adapterSet;
   private String jmsConnector;
   private LSConnectionListener listener;
+  private Executor dispatchExecutor;
+  private ClassLoader classLoader;
+  private int maxConsumerQueuedMessages;
+  private long maxConsumerQueuedBytes;
+  private long maxConnectionQueuedBytes;
+  private boolean consumerMultiplexing;
+  private Set<LSMessageField> consumerFields;
+  private boolean messageLossDetection;
+  private int duplicateDetectionWindow;
+  private boolean discardExpiredMessages;
+  private LSAcknowledgePolicy acknowledgePolicy;
+  private long temporaryDestinationTimeout;
 
   /////////////////////////////////////////////////////////////////////////
   // Client connection listener implementation
@@ -173,6 +187,8 @@ public class LSConnectionFactory implements ConnectionFactory {
     this.serverAddress = serverAddress;
     this.adapterSet = adapterSet;
     this.jmsConnector = jmsConnector;
+    this.acknowledgePolicy = LSAcknowledgePolicy.DEFAULT;
+    this.temporaryDestinationTimeout = 30000;
   }
 
   /////////////////////////////////////////////////////////////////////////
@@ -251,6 +267,424 @@ public class LSConnectionFactory implements ConnectionFactory {
     return listener;
   }
 
+  /**
+   * Sets the {@code Executor} used to call the {@code MessageListener}s of the message consumers of
+   * connections created by this factory.
+   *
+   * <p>By default (or if {@code null} is specified) message listeners are called directly on the
+   * event thread of the embedded {@code LightstreamerClient}, which is shared by all the consumers
+   * of a connection, so that a slow listener delays the delivery to every other consumer. With a
+   * dispatch executor, each consumer hands its messages over to the executor and listeners run
+   * concurrently with the client event thread and with each other.
+   *
+   * <p>In both cases, the listener of a single consumer is never called concurrently and receives
+   * messages in order of arrival. The acknowledge mode of the session is applied to a message after
+   * its listener returns.
+   *
+   * <p>The executor is not shut down by the library, its lifecycle is up to the caller. The new
+   * value applies to connections created afterwards.
+   *
+   * @param dispatchExecutor the {@code Executor} used to call message listeners, or {@code null}
+   */
+  public synchronized void setDispatchExecutor(Executor dispatchExecutor) {
+    this.dispatchExecutor = dispatchExecutor;
+  }
+
+  /**
+   * Returns the {@code Executor} used to call the {@code MessageListener}s of the message consumers
+   * of connections created by this factory, or {@code null} if it has not been set.
+   *
+   * @return the {@code Executor} used to call message listeners or {@code null}
+   * @see #setDispatchExecutor(Executor)
+   */
+  public synchronized Executor getDispatchExecutor() {
+    return dispatchExecutor;
+  }
+
+  /**
+   * Sets the {@code ClassLoader} used to load the classes of the objects carried by received {@code
+   * ObjectMessage}s, on connections created by this factory.
+   *
+   * <p>By default (or if {@code null} is specified) the class loader of this library is used.
+   * Resolved classes are cached by each connection. The new value applies to connections created
+   * afterwards.
+   *
+   * @param classLoader the {@code ClassLoader} used to load object message classes, or {@code null}
+   */
+  public synchronized void setClassLoader(ClassLoader classLoader) {
+    this.classLoader = classLoader;
+  }
+
+  /**
+   * Returns the {@code ClassLoader} used to load the classes of the objects carried by received
+   * {@code ObjectMessage}s, or {@code null} if it has not been set.
+   *
+   * @return the {@code ClassLoader} used to load object message classes or {@code null}
+   * @see #setClassLoader(ClassLoader)
+   */
+  public synchronized ClassLoader getClassLoader() {
+    return classLoader;
+  }
+
+  /**
+   * Sets the maximum number of messages each message consumer may hold while waiting for them to be
+   * consumed, on connections created by this factory.
+   *
+   * <p>When a consumer reaches this limit it is paused: with the {@link Session#AUTO_ACKNOWLEDGE},
+   * {@link Session#CLIENT_ACKNOWLEDGE} and {@link Session#SESSION_TRANSACTED} acknowledge modes it
+   * stops requesting messages, while with the other acknowledge modes, where messages are pushed by
+   * the JMS Extender, its subscription is suspended as if the connection were stopped. Note that in
+   * the latter case a non-durable topic subscription misses the messages published while paused.
+   * The consumer resumes when its queue drains to half the limit.
+   *
+   * <p>By default (or if 0 is specified) the number of queued messages is not limited. The new
+   * value applies to connections created afterwards.
+   *
+   * @param maxConsumerQueuedMessages the maximum number of queued messages per consumer, or 0
+   * @throws IllegalArgumentException if the specified value is negative
+   */
+  public synchronized void setMaxConsumerQueuedMessages(int maxConsumerQueuedMessages) {
+    if (maxConsumerQueuedMessages < 0) {
+      throw new IllegalArgumentException("Max queued messages can't be negative");
+    }
+
+    this.maxConsumerQueuedMessages = maxConsumerQueuedMessages;
+  }
+
+  /**
+   * Returns the maximum number of messages each message consumer may hold while waiting for them to
+   * be consumed, or 0 if it is not limited.
+   *
+   * @return the maximum number of queued messages per consumer, or 0
+   * @see #setMaxConsumerQueuedMessages(int)
+   */
+  public synchronized int getMaxConsumerQueuedMessages() {
+    return maxConsumerQueuedMessages;
+  }
+
+  /**
+   * Sets the maximum estimated memory, in bytes, each message consumer may use to hold messages
+   * while waiting for them to be consumed, on connections created by this factory.
+   *
+   * <p>The size of a message is estimated from its payload and properties. A consumer reaching this
+   * limit is paused as described in {@link #setMaxConsumerQueuedMessages(int)}.
+   *
+   * <p>By default (or if 0 is specified) the memory used by queued messages is not limited. The new
+   * value applies to connections created afterwards.
+   *
+   * @param maxConsumerQueuedBytes the maximum estimated size of queued messages per consumer, or 0
+   * @throws IllegalArgumentException if the specified value is negative
+   */
+  public synchronized void setMaxConsumerQueuedBytes(long maxConsumerQueuedBytes) {
+    if (maxConsumerQueuedBytes < 0) {
+      throw new IllegalArgumentException("Max queued bytes can't be negative");
+    }
+
+    this.maxConsumerQueuedBytes = maxConsumerQueuedBytes;
+  }
+
+  /**
+   * Returns the maximum estimated memory, in bytes, each message consumer may use to hold messages
+   * while waiting for them to be consumed, or 0 if it is not limited.
+   *
+   * @return the maximum estimated size of queued messages per consumer, or 0
+   * @see #setMaxConsumerQueuedBytes(long)
+   */
+  public synchronized long getMaxConsumerQueuedBytes() {
+    return maxConsumerQueuedBytes;
+  }
+
+  /**
+   * Sets the maximum estimated memory, in bytes, all the message consumers of a connection may use
+   * together to hold messages while waiting for them to be consumed, on connections created by this
+   * factory.
+   *
+   * <p>When this limit is reached, each consumer receiving a further message is paused as described
+   * in {@link #setMaxConsumerQueuedMessages(int)}. Paused consumers resume when the memory used by
+   * the connection drains to half the limit.
+   *
+   * <p>By default (or if 0 is specified) the memory used by queued messages is not limited. The new
+   * value applies to connections created afterwards.
+   *
+   * @param maxConnectionQueuedBytes the maximum estimated size of queued messages per connection,
+   *     or 0
+   * @throws IllegalArgumentException if the specified value is negative
+   */
+  public synchronized void setMaxConnectionQueuedBytes(long maxConnectionQueuedBytes) {
+    if (maxConnectionQueuedBytes < 0) {
+      throw new IllegalArgumentException("Max queued bytes can't be negative");
+    }
+
+    this.maxConnectionQueuedBytes = maxConnectionQueuedBytes;
+  }
+
+  /**
+   * Returns the maximum estimated memory, in bytes, all the message consumers of a connection may
+   * use together to hold messages while waiting for them to be consumed, or 0 if it is not limited.
+   *
+   * @return the maximum estimated size of queued messages per connection, or 0
+   * @see #setMaxConnectionQueuedBytes(long)
+   */
+  public synchronized long getMaxConnectionQueuedBytes() {
+    return maxConnectionQueuedBytes;
+  }
+
+  /**
+   * Sets whether identical message consumers of a connection share a single subscription to the JMS
+   * Extender, on connections created by this factory.
+   *
+   * <p>When enabled, non-durable and non-shared topic consumers with the same topic and {@code
+   * noLocal} flag receive their messages from a single subscription, and each message is sent by
+   * the JMS Extender just once. Sharing applies to sessions in {@link LSSession#PRE_ACKNOWLEDGE}
+   * mode, across the whole connection, and to sessions in {@link
+   * javax.jms.Session#DUPS_OK_ACKNOWLEDGE} mode, among the consumers of the same session. Consumers
+   * of other acknowledge modes always have their own subscription.
+   *
+   * <p>Message selectors of sharing consumers are evaluated on the client, so that consumers with
+   * different selectors may share the same subscription, provided that every header and property a
+   * selector refers to is requested by the consumer (see {@link LSSession#setConsumerFields(Set)}).
+   * Otherwise the selector is evaluated by the JMS Extender, and the consumer shares its
+   * subscription only with consumers with the same selector. As the JMS Extender sends every
+   * message to a shared subscription, the lost message counts of its consumers include messages
+   * their selectors might not have matched.
+   *
+   * <p>Consumers sharing a subscription still receive their own copy of each message. If one of
+   * them is paused for exceeding its queue limits (see {@link #setMaxConsumerQueuedMessages(int)}),
+   * the shared subscription is paused for all of them.
+   *
+   * <p>Note that in {@link LSSession#PRE_ACKNOWLEDGE} mode a shared subscription is requested on
+   * behalf of the session of the consumer that created it, and is kept as long as any consumer of
+   * any session uses it, even after that session has been closed.
+   *
+   * <p>Sharing is disabled by default. The new value applies to connections created afterwards.
+   *
+   * @param consumerMultiplexing {@code true} to let identical consumers share a subscription
+   */
+  public synchronized void setConsumerMultiplexing(boolean consumerMultiplexing) {
+    this.consumerMultiplexing = consumerMultiplexing;
+  }
+
+  /**
+   * Returns whether identical message consumers of a connection share a single subscription to the
+   * JMS Extender.
+   *
+   * @return {@code true} if identical consumers share a subscription
+   * @see #setConsumerMultiplexing(boolean)
+   */
+  public synchronized boolean isConsumerMultiplexing() {
+    return consumerMultiplexing;
+  }
+
+  /**
+   * Sets the message fields requested to the JMS Extender by the message consumers of sessions
+   * created by connections of this factory.
+   *
+   * <p>By default (or if {@code null} is specified) consumers request all the fields of each
+   * message. See {@link LSSession#setConsumerFields(Set)} for details; the value set here is the
+   * initial value of each session. The new value applies to connections created afterwards.
+   *
+   * @param consumerFields the set of message fields to be requested, or {@code null} for all of
+   *     them
+   */
+  public synchronized void setConsumerFields(Set<LSMessageField> consumerFields) {
+    this.consumerFields = LSConsumerSchema.copyFields(consumerFields);
+  }
+
+  /**
+   * Returns the message fields requested to the JMS Extender by the message consumers of sessions
+   * created by connections of this factory.
+   *
+   * @return an unmodifiable set of the message fields to be requested, or {@code null} if all of
+   *     them are requested
+   * @see #setConsumerFields(Set)
+   */
+  public synchronized Set<LSMessageField> getConsumerFields() {
+    return consumerFields;
+  }
+
+  /**
+   * Sets whether message loss is detected and notified on connections created by this factory.
+   *
+   * <p>When enabled, messages dropped by the Lightstreamer Server due to internal resource
+   * limitations are notified to the {@link javax.jms.ExceptionListener} of the connection as an
+   * {@link LSMessageLossException}. Moreover, non-shared topic consumers with neither a message
+   * selector nor the {@code noLocal} flag check the sequence of the IDs of received messages, and
+   * gaps are notified the same way. Gap detection applies to message IDs ending with a sequence
+   * number, as generated by many JMS brokers, and only among consecutive messages of the same
+   * producer.
+   *
+   * <p>Messages dropped by the server are counted in any case, see {@link
+   * LSMessageConsumer#getLostMessageCount()}.
+   *
+   * <p>Detection is disabled by default. The new value applies to connections created afterwards.
+   *
+   * @param messageLossDetection {@code true} to detect and notify message loss
+   */
+  public synchronized void setMessageLossDetection(boolean messageLossDetection) {
+    this.messageLossDetection = messageLossDetection;
+  }
+
+  /**
+   * Returns whether message loss is detected and notified on connections created by this factory.
+   *
+   * @return {@code true} if message loss is detected and notified
+   * @see #setMessageLossDetection(boolean)
+   */
+  public synchronized boolean isMessageLossDetection() {
+    return messageLossDetection;
+  }
+
+  /**
+   * Sets the number of recent message IDs each message consumer remembers to discard duplicate
+   * messages, on connections created by this factory.
+   *
+   * <p>When enabled, a message whose ID matches one of the last {@code duplicateDetectionWindow}
+   * messages received by the consumer is discarded before being queued or dispatched. This covers
+   * messages delivered twice with the {@link Session#DUPS_OK_ACKNOWLEDGE} acknowledge mode, e.g.
+   * redelivered after a reconnection. Detection applies to sessions in {@link
+   * Session#DUPS_OK_ACKNOWLEDGE} and {@link LSSession#PRE_ACKNOWLEDGE} mode only: with the other
+   * acknowledge modes a redelivered message has not been acknowledged yet, and is always delivered
+   * again.
+   *
+   * <p>By default (or if 0 is specified) duplicates are not detected. The new value applies to
+   * connections created afterwards.
+   *
+   * @param duplicateDetectionWindow the number of message IDs remembered per consumer, or 0
+   * @throws IllegalArgumentException if the specified value is negative
+   */
+  public synchronized void setDuplicateDetectionWindow(int duplicateDetectionWindow) {
+    if (duplicateDetectionWindow < 0) {
+      throw new IllegalArgumentException("Duplicate detection window can't be negative");
+    }
+
+    this.duplicateDetectionWindow = duplicateDetectionWindow;
+  }
+
+  /**
+   * Returns the number of recent message IDs each message consumer remembers to discard duplicate
+   * messages.
+   *
+   * @return the number of message IDs remembered per consumer, or 0 if duplicates are not detected
+   * @see #setDuplicateDetectionWindow(int)
+   */
+  public synchronized int getDuplicateDetectionWindow() {
+    return duplicateDetectionWindow;
+  }
+
+  /**
+   * Sets whether message consumers discard expired messages instead of delivering them, on
+   * connections created by this factory.
+   *
+   * <p>When enabled, a message whose expiration time has passed is discarded when received and when
+   * taken from the consumer queue, so that consumers lagging behind do not process stale messages.
+   * Discarded messages are acknowledged as if consumed, so that they are not redelivered: with the
+   * {@link Session#CLIENT_ACKNOWLEDGE} and {@link Session#SESSION_TRANSACTED} acknowledge modes
+   * they are acknowledged along with the other messages of the session. Expiration times are
+   * available only if requested by the consumer, see {@link LSSession#setConsumerFields(Set)}.
+   *
+   * <p>Expiration times are set by the producer's clock and compared with the local clock of the
+   * client, without any tolerance for clock skew. Enable discarding only if the clocks are kept
+   * synchronized: with a client clock running ahead, messages are discarded before they actually
+   * expire and are not redelivered.
+   *
+   * <p>Discarding is disabled by default. The new value applies to connections created afterwards.
+   *
+   * @param discardExpiredMessages {@code true} to discard expired messages
+   * @see LSMessageConsumer#getExpiredMessageCount()
+   */
+  public synchronized void setDiscardExpiredMessages(boolean discardExpiredMessages) {
+    this.discardExpiredMessages = discardExpiredMessages;
+  }
+
+  /**
+   * Returns whether message consumers discard expired messages instead of delivering them.
+   *
+   * @return {@code true} if expired messages are discarded
+   * @see #setDiscardExpiredMessages(boolean)
+   */
+  public synchronized boolean isDiscardExpiredMessages() {
+    return discardExpiredMessages;
+  }
+
+  /**
+   * Sets the policy by which sessions in {@link Session#DUPS_OK_ACKNOWLEDGE} mode coalesce the
+   * acknowledgements of consumed messages, on connections created by this factory.
+   *
+   * <p>By default (or if {@code null} is specified) the {@link LSAcknowledgePolicy#DEFAULT} policy
+   * is used. See {@link LSSession#setAcknowledgePolicy(LSAcknowledgePolicy)} for details; the value
+   * set here is the initial value of each session. The new value applies to connections created
+   * afterwards.
+   *
+   * @param acknowledgePolicy the acknowledge policy, or {@code null} for the default one
+   */
+  public synchronized void setAcknowledgePolicy(LSAcknowledgePolicy acknowledgePolicy) {
+    this.acknowledgePolicy =
+        acknowledgePolicy != null ? acknowledgePolicy : LSAcknowledgePolicy.DEFAULT;
+  }
+
+  /**
+   * Returns the policy by which sessions in {@link Session#DUPS_OK_ACKNOWLEDGE} mode coalesce the
+   * acknowledgements of consumed messages.
+   *
+   * @return the acknowledge policy
+   * @see #setAcknowledgePolicy(LSAcknowledgePolicy)
+   */
+  public synchronized LSAcknowledgePolicy getAcknowledgePolicy() {
+    return acknowledgePolicy;
+  }
+
+  /**
+   * Sets the timeout of the creation of temporary queues and topics, on connections created by this
+   * factory.
+   *
+   * <p>If the JMS Extender doesn't confirm the creation within the timeout, {@link
+   * Session#createTemporaryQueue()} and {@link Session#createTemporaryTopic()} fail with a {@code
+   * JMSException}, and the futures returned by {@link LSSession#createTemporaryQueueAsync()} and
+   * {@link LSSession#createTemporaryTopicAsync()} complete exceptionally with it.
+   *
+   * <p>The default timeout is 30 seconds, while 0 means that creations never time out. The new
+   * value applies to connections created afterwards.
+   *
+   * @param temporaryDestinationTimeout the timeout (in milliseconds), or 0
+   * @throws IllegalArgumentException if the specified value is negative
+   */
+  public synchronized void setTemporaryDestinationTimeout(long temporaryDestinationTimeout) {
+    if (temporaryDestinationTimeout < 0) {
+      throw new IllegalArgumentException("Timeout can't be negative");
+    }
+
+    this.temporaryDestinationTimeout = temporaryDestinationTimeout;
+  }
+
+  /**
+   * Returns the timeout of the creation of temporary queues and topics, or 0 if creations never
+   * time out.
+   *
+   * @return the timeout (in milliseconds), or 0
+   * @see #setTemporaryDestinationTimeout(long)
+   */
+  public synchronized long getTemporaryDestinationTimeout() {
+    return temporaryDestinationTimeout;
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  synchronized void configure(LSConnection connection) {
+    // Apply the factory-level settings to a newly created connection
+    connection.setDispatchExecutor(dispatchExecutor);
+    connection.setClassLoader(classLoader);
+    connection.setQueueLimits(
+        maxConsumerQueuedMessages, maxConsumerQueuedBytes, maxConnectionQueuedBytes);
+    connection.setConsumerMultiplexing(consumerMultiplexing);
+    connection.setConsumerFields(consumerFields);
+    connection.setMessageLossDetection(messageLossDetection);
+    connection.setDuplicateDetectionWindow(duplicateDetectionWindow);
+    connection.setDiscardExpiredMessages(discardExpiredMessages);
+    connection.setAcknowledgePolicy(acknowledgePolicy);
+    connection.setTemporaryDestinationTimeout(temporaryDestinationTimeout);
+  }
+
   /////////////////////////////////////////////////////////////////////////
   // ConnectionFactory interface
 
@@ -301,6 +735,7 @@ public class LSConnectionFactory implements ConnectionFactory {
 
     // Create the JMS connection that wraps the client
     LSConnection connection = new LSConnection(lsClient, jmsConnector, true);
+    configure(connection);
     return connection;
   }
 
@@ -359,6 +794,7 @@ public class LSConnectionFactory implements ConnectionFactory {
 
     // Create the JMS connection that wraps the client
     LSConnection connection = new LSConnection(lsClient, jmsConnector, true);
+    configure(connection);
     return connection;
   }
 
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+final class LSConsumerSchema {
+
+  // Fields needed to build any message
+  private static final String[] REQUIRED_FIELDS = {
+    "messageId", "messageKind", "classFQN", "payload"
+  };
+
+  // Schema requested when no projection is specified
+  private static final String[] FULL_FIELDS = {
+    "dataAdapterName",
+    "destinationType",
+    "destinationName",
+    "replyDestinationType",
+    "replyDestinationName",
+    "messageRedelivered",
+    "messageId",
+    "messageKind",
+    "type",
+    "priority",
+    "expiration",
+    "deliveryMode",
+    "correlationId",
+    "messageProperties",
+    "classFQN",
+    "payload",
+    "timestamp",
+    "deliveryTime"
+  };
+
+  static final LSConsumerSchema FULL = new LSConsumerSchema(FULL_FIELDS);
+
+  private final String[] fields;
+
+  // 1-based positions of the fields in the schema, 0 if not requested
+  final int messageId;
+  final int messageKind;
+  final int classFqn;
+  final int payload;
+  final int properties;
+  final int replyDestinationType;
+  final int replyDestinationName;
+  final int type;
+  final int correlationId;
+  final int priority;
+  final int expiration;
+  final int deliveryMode;
+  final int timestamp;
+  final int deliveryTime;
+  final int redelivered;
+
+  // Whether any of the headers decoded on first access is requested
+  final boolean hasHeaders;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  private LSConsumerSchema(String[] fields) {
+    this.fields = fields;
+
+    List<String> list = Arrays.asList(fields);
+    this.messageId = list.indexOf("messageId") + 1;
+    this.messageKind = list.indexOf("messageKind") + 1;
+    this.classFqn = list.indexOf("classFQN") + 1;
+    this.payload = list.indexOf("payload") + 1;
+    this.properties = list.indexOf("messageProperties") + 1;
+    this.replyDestinationType = list.indexOf("replyDestinationType") + 1;
+    this.replyDestinationName = list.indexOf("replyDestinationName") + 1;
+    this.type = list.indexOf("type") + 1;
+    this.correlationId = list.indexOf("correlationId") + 1;
+    this.priority = list.indexOf("priority") + 1;
+    this.expiration = list.indexOf("expiration") + 1;
+    this.deliveryMode = list.indexOf("deliveryMode") + 1;
+    this.timestamp = list.indexOf("timestamp") + 1;
+    this.deliveryTime = list.indexOf("deliveryTime") + 1;
+    this.redelivered = list.indexOf("messageRedelivered") + 1;
+
+    this.hasHeaders =
+        timestamp != 0
+            || redelivered != 0
+            || deliveryMode != 0
+            || priority != 0
+            || expiration != 0
+            || deliveryTime != 0
+            || replyDestinationType != 0;
+  }
+
+  static LSConsumerSchema forFields(Set<LSMessageField> messageFields) {
+    if (messageFields == null) {
+      return FULL;
+    }
+
+    // Optional fields follow the required ones in declaration order,
+    // so that equal projections produce the same schema
+    List<String> list = new ArrayList<String>(Arrays.asList(REQUIRED_FIELDS));
+    for (LSMessageField messageField : LSMessageField.values()) {
+      if (messageFields.contains(messageField)) {
+        list.addAll(Arrays.asList(messageField.getSchemaFields()));
+      }
+    }
+
+    return new LSConsumerSchema(list.toArray(new String[list.size()]));
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  static Set<LSMessageField> copyFields(Set<LSMessageField> messageFields) {
+    if (messageFields == null) {
+      return null;
+    }
+
+    // Defensive copy, safe to share across sessions and consumers
+    Set<LSMessageField> copy = EnumSet.noneOf(LSMessageField.class);
+    copy.addAll(messageFields);
+    return Collections.unmodifiableSet(copy);
+  }
+
+  String[] getFields() {
+    return fields.clone();
+  }
+
+  String getKey() {
+    return String.join(",", fields);
+  }
+}
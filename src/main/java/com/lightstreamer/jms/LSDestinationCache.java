@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class LSDestinationCache {
+
+  // Maximum number of destinations of each type kept by the cache
+  private static final int MAX_CACHED_DESTINATIONS = 256;
+
+  private final LSSessionImpl session;
+
+  private final Map<String, LSQueue> queues;
+  private final Map<String, LSTopic> topics;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  LSDestinationCache(LSSessionImpl session) {
+    this.session = session;
+
+    this.queues = createLruMap();
+    this.topics = createLruMap();
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  synchronized LSQueue getQueue(String name) {
+    LSQueue queue = queues.get(name);
+    if (queue == null) {
+      queue = new LSQueue(session, name);
+      queues.put(name, queue);
+    }
+
+    return queue;
+  }
+
+  synchronized LSTopic getTopic(String name) {
+    LSTopic topic = topics.get(name);
+    if (topic == null) {
+      topic = new LSTopic(session, name);
+      topics.put(name, topic);
+    }
+
+    return topic;
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Internals
+
+  private static <T> Map<String, T> createLruMap() {
+    // Access-ordered, so that the least recently used destination is evicted first
+    return new LinkedHashMap<String, T>(16, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+        return size() > MAX_CACHED_DESTINATIONS;
+      }
+    };
+  }
+}
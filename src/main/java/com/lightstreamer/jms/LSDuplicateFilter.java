@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+import java.util.HashSet;
+import java.util.Set;
+
+class LSDuplicateFilter {
+
+  // Most recent message IDs, in order of arrival, with the next slot to overwrite
+  private final String[] window;
+  private int next;
+
+  // Same IDs as the window, for constant time lookup
+  private final Set<String> ids;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  LSDuplicateFilter(int size) {
+    this.window = new String[size];
+    this.next = 0;
+
+    this.ids = new HashSet<String>(size * 4 / 3 + 1);
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  // Not thread safe: called only on the Lightstreamer event thread
+  boolean isDuplicate(String messageId) {
+    if (messageId == null) {
+      return false;
+    }
+
+    if (!ids.add(messageId)) {
+      return true;
+    }
+
+    // Forget the oldest ID once the window is full
+    String oldest = window[next];
+    if (oldest != null) {
+      ids.remove(oldest);
+    }
+
+    window[next] = messageId;
+    next = (next + 1) % window.length;
+
+    return false;
+  }
+}
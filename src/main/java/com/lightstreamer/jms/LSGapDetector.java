@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+class LSGapDetector {
+
+  // Longest sequence number parsed, as longer ones may overflow a long
+  private static final int MAX_SEQUENCE_DIGITS = 18;
+
+  // Highest message ID received, split into prefix and sequence number
+  private String lastIdPrefix;
+  private long lastIdSequence;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  // Not thread safe: called only on the Lightstreamer event thread
+  long detectGap(String messageId) {
+    if (messageId == null) {
+      return 0;
+    }
+
+    // Split IDs ending with a sequence number, e.g. "ID:host-1234-1:1:1:1:42"
+    int end = messageId.length();
+    int start = end;
+    while ((start > 0) && Character.isDigit(messageId.charAt(start - 1))) {
+      start--;
+    }
+
+    // Not a sequence, or too long to be parsed
+    if ((start == end) || (end - start > MAX_SEQUENCE_DIGITS)) {
+      lastIdPrefix = null;
+      return 0;
+    }
+
+    String prefix = messageId.substring(0, start);
+    long sequence = Long.parseLong(messageId.substring(start));
+
+    // IDs from different producers have different prefixes, while redelivered
+    // and duplicate messages go backwards: neither is a gap, and the latter
+    // don't move the sequence back, or the next message would look like one
+    long gap = 0;
+    if (prefix.equals(lastIdPrefix)) {
+      if (sequence <= lastIdSequence) {
+        return 0;
+      }
+
+      gap = sequence - lastIdSequence - 1;
+    }
+
+    lastIdPrefix = prefix;
+    lastIdSequence = sequence;
+
+    return gap;
+  }
+}
@@ -15,116 +15,123 @@
  */
 package com.lightstreamer.jms;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import javax.jms.JMSConsumer;
-import javax.jms.JMSException;
 import javax.jms.JMSRuntimeException;
 import javax.jms.Message;
-import javax.jms.MessageListener;
-
-class LSJMSConsumer implements JMSConsumer {
-
-  private final LSMessageConsumer consumer;
-
-  /////////////////////////////////////////////////////////////////////////
-  // Initialization
-
-  LSJMSConsumer(LSMessageConsumer consumer) {
-    this.consumer = consumer;
-  }
-
-  /////////////////////////////////////////////////////////////////////////
-  // JMSConsumer interface
-
-  @Override
-  public String getMessageSelector() {
-    try {
-      return consumer.getMessageSelector();
-    } catch (JMSException jmse) {
-      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
-    }
-  }
-
-  @Override
-  public MessageListener getMessageListener() throws JMSRuntimeException {
-    try {
-      return consumer.getMessageListener();
-    } catch (JMSException jmse) {
-      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
-    }
-  }
-
-  @Override
-  public void setMessageListener(MessageListener listener) throws JMSRuntimeException {
-    try {
-      consumer.setMessageListener(listener);
-    } catch (JMSException jmse) {
-      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
-    }
-  }
-
-  @Override
-  public Message receive() {
-    try {
-      return consumer.receive();
-    } catch (JMSException jmse) {
-      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
-    }
-  }
-
-  @Override
-  public Message receive(long timeout) {
-    try {
-      return consumer.receive(timeout);
-    } catch (JMSException jmse) {
-      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
-    }
-  }
-
-  @Override
-  public Message receiveNoWait() {
-    try {
-      return consumer.receiveNoWait();
-    } catch (JMSException jmse) {
-      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
-    }
-  }
-
-  @Override
-  public void close() {
-    try {
-      consumer.close();
-    } catch (JMSException jmse) {
-      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
-    }
-  }
-
-  @Override
-  public <T> T receiveBody(Class<T> c) {
-    try {
-      Message message = consumer.receive();
-      return (message != null) ? message.getBody(c) : null;
-    } catch (JMSException jmse) {
-      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
-    }
-  }
-
-  @Override
-  public <T> T receiveBody(Class<T> c, long timeout) {
-    try {
-      Message message = consumer.receive(timeout);
-      return (message != null) ? message.getBody(c) : null;
-    } catch (JMSException jmse) {
-      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
-    }
-  }
-
-  @Override
-  public <T> T receiveBodyNoWait(Class<T> c) {
-    try {
-      Message message = consumer.receiveNoWait();
-      return (message != null) ? message.getBody(c) : null;
-    } catch (JMSException jmse) {
-      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
-    }
-  }
+import org.reactivestreams.Publisher;
+
+/**
+ * An extension of the {@link javax.jms.JMSConsumer} interface to add the JMS Extender-specific
+ * asynchronous, batch and reactive receive operations, along with queue and message loss
+ * statistics.
+ *
+ * <p>Consumers created by a {@code JMSContext} obtained from an {@link LSConnectionFactory}
+ * implement this interface, and may be cast to it to access the additional operations.
+ */
+public interface LSJMSConsumer extends JMSConsumer {
+
+  /**
+   * Receives the next message without blocking the calling thread.
+   *
+   * @return a future of the next message produced for this consumer
+   * @throws JMSRuntimeException if the JMS provider fails to receive the next message due to some
+   *     internal error
+   * @see LSMessageConsumer#receiveAsync()
+   */
+  CompletableFuture<Message> receiveAsync();
+
+  /**
+   * Receives the next message that arrives within the specified timeout interval, without blocking
+   * the calling thread.
+   *
+   * @param timeout the timeout value (in milliseconds), a timeout of zero never expires
+   * @return a future of the next message produced for this consumer
+   * @throws JMSRuntimeException if the JMS provider fails to receive the next message due to some
+   *     internal error
+   * @see LSMessageConsumer#receiveAsync(long)
+   */
+  CompletableFuture<Message> receiveAsync(long timeout);
+
+  /**
+   * Receives up to {@code maxMessages} messages in a single call.
+   *
+   * @param maxMessages the maximum number of messages to be returned, must be greater than zero
+   * @param timeout the timeout value (in milliseconds), a timeout of zero never expires
+   * @return the list of messages received, in order of arrival, or an empty list if the timeout
+   *     expires or the consumer is closed before a message is available
+   * @throws JMSRuntimeException if the JMS provider fails to receive the messages due to some
+   *     internal error
+   * @throws IllegalArgumentException if {@code maxMessages} is not greater than zero
+   * @see LSMessageConsumer#receive(int, long)
+   */
+  List<Message> receive(int maxMessages, long timeout);
+
+  /**
+   * Moves up to {@code maxMessages} messages already received by the consumer to the specified
+   * collection, without waiting for more messages to arrive.
+   *
+   * @param collection the collection to add the messages to, in order of arrival
+   * @param maxMessages the maximum number of messages to be moved, must be greater than zero
+   * @return the number of messages moved
+   * @throws JMSRuntimeException if the JMS provider fails to receive the messages due to some
+   *     internal error
+   * @throws IllegalArgumentException if {@code maxMessages} is not greater than zero
+   * @see LSMessageConsumer#drainTo(Collection, int)
+   */
+  int drainTo(Collection<? super Message> collection, int maxMessages);
+
+  /**
+   * Returns the number of messages received by the consumer and waiting to be consumed.
+   *
+   * @return the number of queued messages
+   * @see LSMessageConsumer#getQueuedMessageCount()
+   */
+  int getQueuedMessageCount();
+
+  /**
+   * Returns an estimate of the memory, in bytes, used by the messages received by the consumer and
+   * waiting to be consumed.
+   *
+   * @return the estimated size of the queued messages, in bytes
+   * @see LSMessageConsumer#getQueuedBytes()
+   */
+  long getQueuedBytes();
+
+  /**
+   * Returns the number of messages directed to the consumer that the Lightstreamer Server has
+   * dropped due to internal resource limitations.
+   *
+   * @return the number of messages dropped by the server
+   * @see LSMessageConsumer#getLostMessageCount()
+   */
+  long getLostMessageCount();
+
+  /**
+   * Returns the number of messages found missing from gaps in the sequence of message IDs received
+   * by the consumer.
+   *
+   * @return the number of messages found missing from message ID gaps
+   * @see LSMessageConsumer#getMessageIdGapCount()
+   */
+  long getMessageIdGapCount();
+
+  /**
+   * Returns the number of messages discarded by the consumer because they expired before being
+   * delivered.
+   *
+   * @return the number of expired messages discarded
+   * @see LSMessageConsumer#getExpiredMessageCount()
+   */
+  long getExpiredMessageCount();
+
+  /**
+   * Returns a Reactive Streams {@code Publisher} of the messages received by this consumer.
+   *
+   * @return a publisher of the messages received by this consumer
+   * @see LSMessageConsumer#toPublisher()
+   */
+  Publisher<Message> toPublisher();
 }
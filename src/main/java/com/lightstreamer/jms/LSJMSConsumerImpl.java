@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import javax.jms.JMSException;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import org.reactivestreams.Publisher;
+
+class LSJMSConsumerImpl implements LSJMSConsumer {
+
+  private final LSMessageConsumerImpl consumer;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  LSJMSConsumerImpl(LSMessageConsumerImpl consumer) {
+    this.consumer = consumer;
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // JMSConsumer interface
+
+  @Override
+  public String getMessageSelector() {
+    try {
+      return consumer.getMessageSelector();
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  @Override
+  public MessageListener getMessageListener() throws JMSRuntimeException {
+    try {
+      return consumer.getMessageListener();
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  @Override
+  public void setMessageListener(MessageListener listener) throws JMSRuntimeException {
+    try {
+      consumer.setMessageListener(listener);
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  @Override
+  public Message receive() {
+    try {
+      return consumer.receive();
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  @Override
+  public Message receive(long timeout) {
+    try {
+      return consumer.receive(timeout);
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  @Override
+  public Message receiveNoWait() {
+    try {
+      return consumer.receiveNoWait();
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      consumer.close();
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  @Override
+  public <T> T receiveBody(Class<T> c) {
+    try {
+      Message message = consumer.receive();
+      return (message != null) ? message.getBody(c) : null;
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  @Override
+  public <T> T receiveBody(Class<T> c, long timeout) {
+    try {
+      Message message = consumer.receive(timeout);
+      return (message != null) ? message.getBody(c) : null;
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  @Override
+  public <T> T receiveBodyNoWait(Class<T> c) {
+    try {
+      Message message = consumer.receiveNoWait();
+      return (message != null) ? message.getBody(c) : null;
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // LSJMSConsumer interface
+
+  @Override
+  public CompletableFuture<Message> receiveAsync() {
+    try {
+      return consumer.receiveAsync();
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  @Override
+  public CompletableFuture<Message> receiveAsync(long timeout) {
+    try {
+      return consumer.receiveAsync(timeout);
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  @Override
+  public List<Message> receive(int maxMessages, long timeout) {
+    try {
+      return consumer.receive(maxMessages, timeout);
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  @Override
+  public int drainTo(Collection<? super Message> collection, int maxMessages) {
+    try {
+      return consumer.drainTo(collection, maxMessages);
+    } catch (JMSException jmse) {
+      throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
+    }
+  }
+
+  @Override
+  public int getQueuedMessageCount() {
+    return consumer.getQueuedMessageCount();
+  }
+
+  @Override
+  public long getQueuedBytes() {
+    return consumer.getQueuedBytes();
+  }
+
+  @Override
+  public long getLostMessageCount() {
+    return consumer.getLostMessageCount();
+  }
+
+  @Override
+  public long getMessageIdGapCount() {
+    return consumer.getMessageIdGapCount();
+  }
+
+  @Override
+  public long getExpiredMessageCount() {
+    return consumer.getExpiredMessageCount();
+  }
+
+  @Override
+  public Publisher<Message> toPublisher() {
+    return consumer.toPublisher();
+  }
+}
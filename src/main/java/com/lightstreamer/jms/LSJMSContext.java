@@ -316,15 +316,15 @@ class LSJMSContext implements JMSContext {
 
     try {
       // Create the consumer
-      LSMessageConsumer consumer =
-          (LSMessageConsumer) session.createConsumer(destination, messageSelector, noLocal);
+      LSMessageConsumerImpl consumer =
+          (LSMessageConsumerImpl) session.createConsumer(destination, messageSelector, noLocal);
 
       // Check auto-start
       if (autoStart) {
         start();
       }
 
-      return new LSJMSConsumer(consumer);
+      return new LSJMSConsumerImpl(consumer);
     } catch (JMSException jmse) {
       throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
     }
@@ -358,14 +358,15 @@ class LSJMSContext implements JMSContext {
 
     try {
       // Create the consumer
-      LSMessageConsumer consumer = (LSMessageConsumer) session.createDurableConsumer(topic, name);
+      LSMessageConsumerImpl consumer =
+          (LSMessageConsumerImpl) session.createDurableConsumer(topic, name);
 
       // Check auto-start
       if (autoStart) {
         start();
       }
 
-      return new LSJMSConsumer(consumer);
+      return new LSJMSConsumerImpl(consumer);
     } catch (JMSException jmse) {
       throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
     }
@@ -378,15 +379,16 @@ class LSJMSContext implements JMSContext {
 
     try {
       // Create the consumer
-      LSMessageConsumer consumer =
-          (LSMessageConsumer) session.createDurableConsumer(topic, name, messageSelector, noLocal);
+      LSMessageConsumerImpl consumer =
+          (LSMessageConsumerImpl)
+              session.createDurableConsumer(topic, name, messageSelector, noLocal);
 
       // Check auto-start
       if (autoStart) {
         start();
       }
 
-      return new LSJMSConsumer(consumer);
+      return new LSJMSConsumerImpl(consumer);
     } catch (JMSException jmse) {
       throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
     }
@@ -398,15 +400,15 @@ class LSJMSContext implements JMSContext {
 
     try {
       // Create the consumer
-      LSMessageConsumer consumer =
-          (LSMessageConsumer) session.createSharedDurableConsumer(topic, name);
+      LSMessageConsumerImpl consumer =
+          (LSMessageConsumerImpl) session.createSharedDurableConsumer(topic, name);
 
       // Check auto-start
       if (autoStart) {
         start();
       }
 
-      return new LSJMSConsumer(consumer);
+      return new LSJMSConsumerImpl(consumer);
     } catch (JMSException jmse) {
       throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
     }
@@ -418,15 +420,15 @@ class LSJMSContext implements JMSContext {
 
     try {
       // Create the consumer
-      LSMessageConsumer consumer =
-          (LSMessageConsumer) session.createSharedDurableConsumer(topic, name, messageSelector);
+      LSMessageConsumerImpl consumer =
+          (LSMessageConsumerImpl) session.createSharedDurableConsumer(topic, name, messageSelector);
 
       // Check auto-start
       if (autoStart) {
         start();
       }
 
-      return new LSJMSConsumer(consumer);
+      return new LSJMSConsumerImpl(consumer);
     } catch (JMSException jmse) {
       throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
     }
@@ -438,15 +440,15 @@ class LSJMSContext implements JMSContext {
 
     try {
       // Create the consumer
-      LSMessageConsumer consumer =
-          (LSMessageConsumer) session.createSharedConsumer(topic, sharedSubscriptionName);
+      LSMessageConsumerImpl consumer =
+          (LSMessageConsumerImpl) session.createSharedConsumer(topic, sharedSubscriptionName);
 
       // Check auto-start
       if (autoStart) {
         start();
       }
 
-      return new LSJMSConsumer(consumer);
+      return new LSJMSConsumerImpl(consumer);
     } catch (JMSException jmse) {
       throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
     }
@@ -459,8 +461,8 @@ class LSJMSContext implements JMSContext {
 
     try {
       // Create the consumer
-      LSMessageConsumer consumer =
-          (LSMessageConsumer)
+      LSMessageConsumerImpl consumer =
+          (LSMessageConsumerImpl)
               session.createSharedConsumer(topic, sharedSubscriptionName, messageSelector);
 
       // Check auto-start
@@ -468,7 +470,7 @@ class LSJMSContext implements JMSContext {
         start();
       }
 
-      return new LSJMSConsumer(consumer);
+      return new LSJMSConsumerImpl(consumer);
     } catch (JMSException jmse) {
       throw new JMSRuntimeException(jmse.getMessage(), jmse.getErrorCode(), jmse);
     }
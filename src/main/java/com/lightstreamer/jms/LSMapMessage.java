@@ -17,11 +17,13 @@ package com.lightstreamer.jms;
 
 import com.lightstreamer.jms.descriptors.MessageKind;
 import com.lightstreamer.jms.utils.ConvertibleMap;
+import com.lightstreamer.jms.utils.JSON;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Map;
 import javax.jms.JMSException;
 import javax.jms.MapMessage;
+import javax.jms.MessageFormatException;
 import javax.jms.MessageNotWriteableException;
 
 class LSMapMessage extends LSMessage<ConvertibleMap> implements MapMessage {
@@ -45,14 +47,28 @@ class LSMapMessage extends LSMessage<ConvertibleMap> implements MapMessage {
     body = ConvertibleMap.fromMap(map);
   }
 
+  synchronized void setEncodedMap(String payload) {
+    setRawBody(payload);
+
+    // Received messages are read-only
+    readOnlyMode = true;
+  }
+
   private void chekReadOnlyMode() throws MessageNotWriteableException {
     if (readOnlyMode) {
       throw new MessageNotWriteableException("Message is in read-only mode");
     }
   }
 
-  synchronized Map<String, Object> getMap() {
-    return body.asMap();
+  synchronized Object getEncodedMap() throws JMSException {
+    ensureBody();
+
+    Object encoded = JSON.stringifyMapAsRawValue(body);
+    if (encoded == null) {
+      throw new JMSException("Could not encode map message");
+    }
+
+    return encoded;
   }
 
   synchronized void reset() {
@@ -63,8 +79,19 @@ class LSMapMessage extends LSMessage<ConvertibleMap> implements MapMessage {
   /////////////////////////////////////////////////////////////////////////
   // Overrides from LSMessage
 
+  @Override
+  protected void decodeBody(String rawBody) throws JMSException {
+    ConvertibleMap map = JSON.parseAsConvertibleMap(rawBody);
+    if (map == null) {
+      throw new MessageFormatException("Cannot decode map message");
+    }
+
+    body = map;
+  }
+
   @Override
   public synchronized void clearBody() throws JMSException {
+    discardRawBody();
     body.clear();
     readOnlyMode = false;
   }
@@ -74,62 +101,74 @@ class LSMapMessage extends LSMessage<ConvertibleMap> implements MapMessage {
 
   @Override
   public synchronized boolean getBoolean(String name) throws JMSException {
+    ensureBody();
     return body.getBoolean(name);
   }
 
   @Override
   public synchronized byte getByte(String name) throws JMSException {
+    ensureBody();
     return body.getByte(name);
   }
 
   @Override
   public synchronized short getShort(String name) throws JMSException {
+    ensureBody();
     return body.getShort(name);
   }
 
   @Override
   public synchronized char getChar(String name) throws JMSException {
+    ensureBody();
     return body.getChar(name);
   }
 
   @Override
   public synchronized int getInt(String name) throws JMSException {
+    ensureBody();
     return body.getInt(name);
   }
 
   @Override
   public synchronized long getLong(String name) throws JMSException {
+    ensureBody();
     return body.getLong(name);
   }
 
   @Override
   public synchronized float getFloat(String name) throws JMSException {
+    ensureBody();
     return body.getFloat(name);
   }
 
   @Override
   public synchronized double getDouble(String name) throws JMSException {
+    ensureBody();
     return body.getDouble(name);
   }
 
   @Override
   public synchronized String getString(String name) throws JMSException {
+    ensureBody();
     return body.getString(name);
   }
 
   @Override
   public synchronized byte[] getBytes(String name) throws JMSException {
+    ensureBody();
     return body.getBytes(name);
   }
 
   @Override
   public synchronized Object getObject(String name) throws JMSException {
+    ensureBody();
     return body.getObject(name);
   }
 
   @Override
   @SuppressWarnings("rawtypes")
   public synchronized Enumeration getMapNames() throws JMSException {
+    ensureBody();
     return Collections.enumeration(body.keySet());
   }
 
@@ -209,6 +248,7 @@ class LSMapMessage extends LSMessage<ConvertibleMap> implements MapMessage {
 
   @Override
   public synchronized boolean itemExists(String name) throws JMSException {
+    ensureBody();
     return body.containsKey(name);
   }
 }
@@ -16,7 +16,7 @@
 package com.lightstreamer.jms;
 
 import com.lightstreamer.jms.descriptors.DeliveryMode;
-import com.lightstreamer.jms.descriptors.MessageDescriptor;
+import com.lightstreamer.jms.descriptors.DestinationType;
 import com.lightstreamer.jms.descriptors.MessageKind;
 import com.lightstreamer.jms.utils.ConvertibleMap;
 import com.lightstreamer.jms.utils.JSON;
@@ -27,6 +27,7 @@ import java.util.Map;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
+import javax.jms.MessageFormatException;
 
 abstract class LSMessage<T> implements Message {
 
@@ -43,14 +44,22 @@ abstract class LSMessage<T> implements Message {
 
   protected T body;
 
+  // Raw fields as received from the JMS Extender, decoded on first access
+  private String rawBody;
+  private String rawProperties;
+  private RawHeaders rawHeaders;
+
   protected LSDestination replyDestination;
   protected LSDestination destination;
-  protected LSMessageConsumer consumer;
+  protected LSMessageConsumerImpl consumer;
 
   private String messageId;
   private long timestamp;
   private boolean redelivered;
 
+  // Estimated heap usage of a received message, for queue accounting
+  private int estimatedSize;
+
   /////////////////////////////////////////////////////////////////////////
   // Initialization
 
@@ -74,8 +83,55 @@ abstract class LSMessage<T> implements Message {
     return messageKind;
   }
 
-  synchronized void setLSMessageConsumer(LSMessageConsumer consumer) {
+  int getEstimatedSize() {
+    return estimatedSize;
+  }
+
+  synchronized boolean isExpired(long now) {
+    // Parse just the expiration, without decoding the other headers
+    long expiration = this.expiration;
+    if ((rawHeaders != null) && (rawHeaders.expiration != null)) {
+      try {
+        expiration = Long.parseLong(rawHeaders.expiration);
+      } catch (NumberFormatException nfe) {
+        // Reported when the headers are accessed, never expires meanwhile
+        return false;
+      }
+    }
+
+    return (expiration != 0) && (expiration <= now);
+  }
+
+  synchronized int getLSPriority() {
+    // Used for local ordering only, undecodable headers count as default priority
+    try {
+      decodeHeaders();
+    } catch (JMSException jmse) {
+      return Message.DEFAULT_PRIORITY;
+    }
+
+    return priority;
+  }
+
+  // Called by the consumer on a message just created, before it is made
+  // visible to other threads through the consumer queue: no locking needed
+  void initReceived(
+      LSMessageConsumerImpl consumer,
+      String messageId,
+      String type,
+      String correlationId,
+      String rawProperties,
+      RawHeaders rawHeaders,
+      int estimatedSize) {
+
     this.consumer = consumer;
+    this.destination = consumer.getLSDestination();
+    this.messageId = messageId;
+    this.type = type;
+    this.correlationId = correlationId;
+    this.rawProperties = rawProperties;
+    this.rawHeaders = rawHeaders;
+    this.estimatedSize = estimatedSize;
   }
 
   synchronized void setProperties(Map<String, Object> properties) throws JMSException {
@@ -88,33 +144,152 @@ abstract class LSMessage<T> implements Message {
     }
   }
 
-  synchronized Map<String, Object> getProperties() {
-    return properties.asMap();
+  synchronized Object getEncodedProperties() throws JMSException {
+    ensureProperties();
+
+    Object encoded = JSON.stringifyMapAsRawValue(properties);
+    if (encoded == null) {
+      throw new JMSException("Could not encode message properties");
+    }
+
+    return encoded;
+  }
+
+  synchronized void setRawBody(String rawBody) {
+    this.rawBody = rawBody;
+  }
+
+  LSMessageConsumerImpl getLSMessageConsumer() {
+    return consumer;
   }
 
   synchronized void acknowledgeMessage() throws JMSException {
-    MessageDescriptor ackDescriptor =
-        new MessageDescriptor(
-            session.getLSConnection().getJmsConnector(),
-            session.getLSConnection().getClientID(),
-            session.getLocalGuid(),
-            destination.getLSDestinationType(),
-            destination.getName(),
-            consumer.getSubscriptionName(),
-            consumer.isDurable(),
-            consumer.isNoLocal(),
-            consumer.isShared(),
-            session.getLSAcknowledgeMode(),
-            MessageKind.ACKNOWLEDGE,
-            messageId);
+    // Acknowledgements of the same consumer differ only by message ID
+    String ackMessage = consumer.formatAcknowledge(messageId);
 
     // Use session GUID as sequence identifier, to guarantee proper message serialization
     String sequenceId = session.getLocalGuid().replace('-', '_');
-    String ackMessage = JSON.stringify(ackDescriptor);
 
     session.getLSConnection().getLsClient().sendMessage(ackMessage, sequenceId, -1, null, true);
   }
 
+  /////////////////////////////////////////////////////////////////////////
+  // Lazy decoding
+
+  protected final void ensureBody() throws JMSException {
+    if (rawBody != null) {
+      decodeBody(rawBody);
+
+      // Clear the raw body only once decoded, so that a failure is reported on each access
+      rawBody = null;
+    }
+  }
+
+  protected final void discardRawBody() {
+    rawBody = null;
+  }
+
+  protected void decodeBody(String rawBody) throws JMSException {
+    /* Nothing to do here, subclasses receiving encoded payloads must override */
+  }
+
+  private void ensureProperties() throws JMSException {
+    if (rawProperties != null) {
+      ConvertibleMap map = JSON.parseAsConvertibleMap(rawProperties);
+      if (map == null) {
+        throw new MessageFormatException("Invalid message properties: " + rawProperties);
+      }
+
+      properties = map;
+      rawProperties = null;
+    }
+  }
+
+  private void decodeHeaders() throws JMSException {
+    if (rawHeaders == null) {
+      return;
+    }
+
+    RawHeaders headers = rawHeaders;
+    try {
+      // Headers not requested by the consumer keep their defaults
+      if (headers.timestamp != null) {
+        timestamp = Long.parseLong(headers.timestamp);
+      }
+
+      if (headers.redelivered != null) {
+        redelivered = Boolean.parseBoolean(headers.redelivered);
+      }
+
+      if (headers.deliveryMode != null) {
+        deliveryMode = DeliveryMode.valueOf(headers.deliveryMode);
+      }
+
+      if (headers.priority != null) {
+        priority = Integer.parseInt(headers.priority);
+      }
+
+      if (headers.expiration != null) {
+        expiration = Long.parseLong(headers.expiration);
+      }
+
+      if (headers.deliveryTime != null) {
+        deliveryTime = Long.parseLong(headers.deliveryTime);
+      }
+
+      if (headers.replyDestinationType != null) {
+        switch (DestinationType.valueOf(headers.replyDestinationType)) {
+          case TOPIC:
+            replyDestination = session.getDestinationCache().getTopic(headers.replyDestinationName);
+            break;
+
+          case QUEUE:
+            replyDestination = session.getDestinationCache().getQueue(headers.replyDestinationName);
+            break;
+
+          default:
+            break;
+        }
+      }
+
+    } catch (IllegalArgumentException iae) {
+      throw new MessageFormatException("Invalid message headers: " + iae.getMessage());
+    }
+
+    rawHeaders = null;
+  }
+
+  static final class RawHeaders {
+    final String timestamp;
+    final String redelivered;
+    final String deliveryMode;
+    final String priority;
+    final String expiration;
+    final String deliveryTime;
+    final String replyDestinationType;
+    final String replyDestinationName;
+
+    RawHeaders(
+        String timestamp,
+        String redelivered,
+        String deliveryMode,
+        String priority,
+        String expiration,
+        String deliveryTime,
+        String replyDestinationType,
+        String replyDestinationName) {
+
+      this.timestamp = timestamp;
+      this.redelivered = redelivered;
+      this.deliveryMode = deliveryMode;
+      this.priority = priority;
+      this.expiration = expiration;
+      this.deliveryTime = deliveryTime;
+      this.replyDestinationType = replyDestinationType;
+      this.replyDestinationName = replyDestinationName;
+    }
+  }
+
   /////////////////////////////////////////////////////////////////////////
   // Message interface
 
@@ -130,11 +305,13 @@ abstract class LSMessage<T> implements Message {
 
   @Override
   public synchronized long getJMSTimestamp() throws JMSException {
+    decodeHeaders();
     return timestamp;
   }
 
   @Override
   public synchronized void setJMSTimestamp(long timestamp) throws JMSException {
+    decodeHeaders();
     this.timestamp = timestamp;
   }
 
@@ -169,11 +346,13 @@ abstract class LSMessage<T> implements Message {
 
   @Override
   public synchronized Destination getJMSReplyTo() throws JMSException {
+    decodeHeaders();
     return replyDestination;
   }
 
   @Override
   public synchronized void setJMSReplyTo(Destination replyTo) throws JMSException {
+    decodeHeaders();
     replyDestination = (LSDestination) replyTo;
   }
 
@@ -189,31 +368,37 @@ abstract class LSMessage<T> implements Message {
 
   @Override
   public synchronized int getJMSDeliveryMode() throws JMSException {
+    decodeHeaders();
     return deliveryMode.getId();
   }
 
   @Override
   public synchronized void setJMSDeliveryMode(int deliveryMode) throws JMSException {
+    decodeHeaders();
     this.deliveryMode = DeliveryMode.valueOf(deliveryMode);
   }
 
   @Override
   public synchronized long getJMSDeliveryTime() throws JMSException {
+    decodeHeaders();
     return deliveryTime;
   }
 
   @Override
   public synchronized void setJMSDeliveryTime(long deliveryTime) throws JMSException {
+    decodeHeaders();
     this.deliveryTime = deliveryTime;
   }
 
   @Override
   public synchronized boolean getJMSRedelivered() throws JMSException {
+    decodeHeaders();
     return redelivered;
   }
 
   @Override
   public synchronized void setJMSRedelivered(boolean redelivered) throws JMSException {
+    decodeHeaders();
     this.redelivered = redelivered;
   }
 
@@ -229,127 +414,152 @@ abstract class LSMessage<T> implements Message {
 
   @Override
   public synchronized long getJMSExpiration() throws JMSException {
+    decodeHeaders();
     return expiration;
   }
 
   @Override
   public synchronized void setJMSExpiration(long expiration) throws JMSException {
+    decodeHeaders();
     this.expiration = expiration;
   }
 
   @Override
   public synchronized int getJMSPriority() throws JMSException {
+    decodeHeaders();
     return priority;
   }
 
   @Override
   public synchronized void setJMSPriority(int priority) throws JMSException {
+    decodeHeaders();
     this.priority = priority;
   }
 
   @Override
   public synchronized void clearProperties() throws JMSException {
+    rawProperties = null;
     properties.clear();
   }
 
   @Override
   public synchronized boolean propertyExists(String name) throws JMSException {
+    ensureProperties();
     return properties.containsKey(name);
   }
 
   @Override
   public synchronized boolean getBooleanProperty(String name) throws JMSException {
+    ensureProperties();
     return properties.getBoolean(name);
   }
 
   @Override
   public synchronized byte getByteProperty(String name) throws JMSException {
+    ensureProperties();
     return properties.getByte(name);
   }
 
   @Override
   public synchronized short getShortProperty(String name) throws JMSException {
+    ensureProperties();
     return properties.getShort(name);
   }
 
   @Override
   public synchronized int getIntProperty(String name) throws JMSException {
+    ensureProperties();
     return properties.getInt(name);
   }
 
   @Override
   public synchronized long getLongProperty(String name) throws JMSException {
+    ensureProperties();
     return properties.getLong(name);
   }
 
   @Override
   public synchronized float getFloatProperty(String name) throws JMSException {
+    ensureProperties();
     return properties.getFloat(name);
   }
 
   @Override
   public synchronized double getDoubleProperty(String name) throws JMSException {
+    ensureProperties();
     return properties.getDouble(name);
   }
 
   @Override
   public synchronized String getStringProperty(String name) throws JMSException {
+    ensureProperties();
     return properties.getString(name);
   }
 
   @Override
   public synchronized Object getObjectProperty(String name) throws JMSException {
+    ensureProperties();
     return properties.getObject(name);
   }
 
   @Override
   @SuppressWarnings("rawtypes")
   public synchronized Enumeration getPropertyNames() throws JMSException {
+    ensureProperties();
     return Collections.enumeration(properties.keySet());
   }
 
   @Override
   public synchronized void setBooleanProperty(String name, boolean value) throws JMSException {
+    ensureProperties();
     properties.setBoolean(name, value);
   }
 
   @Override
   public synchronized void setByteProperty(String name, byte value) throws JMSException {
+    ensureProperties();
     properties.setByte(name, value);
   }
 
   @Override
   public synchronized void setShortProperty(String name, short value) throws JMSException {
+    ensureProperties();
     properties.setShort(name, value);
   }
 
   @Override
   public synchronized void setIntProperty(String name, int value) throws JMSException {
+    ensureProperties();
     properties.setInt(name, value);
   }
 
   @Override
   public synchronized void setLongProperty(String name, long value) throws JMSException {
+    ensureProperties();
     properties.setLong(name, value);
   }
 
   @Override
   public synchronized void setFloatProperty(String name, float value) throws JMSException {
+    ensureProperties();
     properties.setFloat(name, value);
   }
 
   @Override
   public synchronized void setDoubleProperty(String name, double value) throws JMSException {
+    ensureProperties();
     properties.setDouble(name, value);
   }
 
   @Override
   public synchronized void setStringProperty(String name, String value) throws JMSException {
+    ensureProperties();
     properties.setString(name, value);
   }
 
   @Override
   public synchronized void setObjectProperty(String name, Object value) throws JMSException {
+    ensureProperties();
     properties.setObject(name, value);
   }
 
@@ -377,17 +587,20 @@ abstract class LSMessage<T> implements Message {
 
   @Override
   public synchronized void clearBody() throws JMSException {
+    discardRawBody();
     body = null;
   }
 
   @Override
   public synchronized <X> X getBody(Class<X> c) throws JMSException {
+    ensureBody();
     return c.cast(body);
   }
 
   @Override
   @SuppressWarnings("rawtypes")
   public synchronized boolean isBodyAssignableTo(Class c) throws JMSException {
+    ensureBody();
     return c.isInstance(body);
   }
 }
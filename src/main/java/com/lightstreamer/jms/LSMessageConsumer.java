@@ -15,582 +15,165 @@
  */
 package com.lightstreamer.jms;
 
-import com.lightstreamer.client.ItemUpdate;
-import com.lightstreamer.client.Subscription;
-import com.lightstreamer.client.SubscriptionListener;
-import com.lightstreamer.jms.descriptors.DeliveryMode;
-import com.lightstreamer.jms.descriptors.DestinationType;
-import com.lightstreamer.jms.descriptors.ItemDescriptor;
-import com.lightstreamer.jms.descriptors.MessageDescriptor;
-import com.lightstreamer.jms.descriptors.MessageKind;
-import com.lightstreamer.jms.utils.JSON;
-import com.lightstreamer.log.LogManager;
-import com.lightstreamer.log.Logger;
-import java.io.Serializable;
-import java.util.Base64;
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
-import javax.jms.MessageListener;
-
-class LSMessageConsumer implements MessageConsumer {
-
-  private static final Logger log = LogManager.getLogger("lightstreamer.jms.consumer");
-
-  protected final LSSessionImpl session;
-  protected final LSDestination destination;
-  protected final String subscriptionName;
-  protected final boolean durable;
-  protected final boolean noLocal;
-  protected final boolean shared;
-  protected final String selector;
-
-  private MessageListener listener;
-  private List<LSMessage<?>> messageQueue;
-  private boolean open;
-
-  private Subscription subscription;
-
-  /////////////////////////////////////////////////////////////////////////
-  // Initialization
-
-  LSMessageConsumer(
-      LSSessionImpl session,
-      LSDestination destination,
-      String subscriptionName,
-      boolean durable,
-      boolean noLocal,
-      boolean shared,
-      String selector) {
-
-    this.session = session;
-    this.destination = destination;
-    this.subscriptionName = subscriptionName;
-    this.durable = durable;
-    this.noLocal = noLocal;
-    this.shared = shared;
-    this.selector = selector;
-
-    this.messageQueue = new LinkedList<LSMessage<?>>();
-    this.open = true;
-
-    ItemDescriptor consumerDescriptor =
-        new ItemDescriptor(
-            session.getLSConnection().getJmsConnector(),
-            null,
-            session.getLSConnection().getClientID(),
-            session.getLocalGuid(),
-            destination.getLSDestinationType(),
-            destination.getName(),
-            subscriptionName,
-            durable,
-            noLocal,
-            shared,
-            session.getLSAcknowledgeMode(),
-            selector);
-
-    String consumerItem = JSON.stringify(consumerDescriptor);
-
-    this.subscription =
-        new Subscription(
-            "RAW",
-            consumerItem,
-            new String[] {
-              "dataAdapterName",
-              "destinationType",
-              "destinationName",
-              "replyDestinationType",
-              "replyDestinationName",
-              "messageRedelivered",
-              "messageId",
-              "messageKind",
-              "type",
-              "priority",
-              "expiration",
-              "deliveryMode",
-              "correlationId",
-              "messageProperties",
-              "classFQN",
-              "payload",
-              "timestamp",
-              "deliveryTime"
-            });
-
-    subscription.setDataAdapter(session.getLSConnection().getJmsConnector());
-    subscription.setRequestedSnapshot("no");
-
-    subscription.addListener(
-        new SubscriptionListener() {
-
-          @Override
-          public void onClearSnapshot(String itemName, int itemPos) {
-            /* Nothing to do here */
-          }
-
-          @Override
-          public void onCommandSecondLevelItemLostUpdates(int lostUpdates, String key) {
-            /* Nothing to do here */
-          }
-
-          @Override
-          public void onCommandSecondLevelSubscriptionError(int code, String message, String key) {
-            /* Nothing to do here */
-          }
-
-          @Override
-          public void onEndOfSnapshot(String itemName, int itemPos) {
-            /* Nothing to do here */
-          }
-
-          @Override
-          public void onItemLostUpdates(String itemName, int itemPos, int lostUpdates) {
-            /* Nothing to do here */
-          }
-
-          @Override
-          public void onItemUpdate(ItemUpdate itemUpdate) {
-            try {
-              String messageKind = itemUpdate.getValue("messageKind");
-              String payload = itemUpdate.getValue("payload");
-              LSMessage<?> message = null;
-              switch (messageKind) {
-                case "TEXT_MSG":
-                  message = new LSTextMessage(LSMessageConsumer.this.session);
-                  ((LSTextMessage) message).setText(payload);
-                  break;
-
-                case "OBJECT_MSG":
-                  String classFqn = itemUpdate.getValue("classFQN");
-                  try {
-                    Class<?> clazz = Class.forName(classFqn);
-                    Serializable object = (Serializable) JSON.parse(payload, clazz);
-                    message = new LSObjectMessage(LSMessageConsumer.this.session);
-                    ((LSObjectMessage) message).setObject(object);
-                  } catch (Exception e) {
-                    log.error(
-                        "Exception while creating an object message for class "
-                            + classFqn
-                            + ": "
-                            + e.getMessage(),
-                        e);
-                  }
-                  break;
-
-                case "MAP_MSG":
-                  try {
-                    Map<String, Object> map = JSON.parseAsMap(payload);
-                    message = new LSMapMessage(LSMessageConsumer.this.session);
-                    ((LSMapMessage) message).setMap(map);
-                    ((LSMapMessage) message).reset();
-                  } catch (Exception e) {
-                    log.error("Exception while creating a map message: " + e.getMessage(), e);
-                  }
-                  break;
-
-                case "BYTES_MSG":
-                  try {
-                    byte[] bytes = Base64.getDecoder().decode(payload);
-                    message = new LSBytesMessage(LSMessageConsumer.this.session);
-                    ((LSBytesMessage) message).writeBytes(bytes);
-                    ((LSBytesMessage) message).reset();
-                  } catch (Exception e) {
-                    log.error("Exception while creating a bytes message: " + e.getMessage(), e);
-                  }
-                  break;
-
-                default:
-                  break;
-              }
-
-              // No message, no party
-              if (message == null) {
-                return;
-              }
-
-              message.setJMSMessageID(itemUpdate.getValue("messageId"));
-              message.setJMSDestination(LSMessageConsumer.this.destination);
-              message.setLSMessageConsumer(LSMessageConsumer.this);
-              message.setJMSTimestamp(Long.parseLong(itemUpdate.getValue("timestamp")));
-              message.setJMSRedelivered(
-                  Boolean.parseBoolean(itemUpdate.getValue("messageRedelivered")));
-              message.setJMSDeliveryMode(
-                  DeliveryMode.valueOf(itemUpdate.getValue("deliveryMode")).getId());
-              message.setJMSPriority(Integer.parseInt(itemUpdate.getValue("priority")));
-              message.setJMSType(itemUpdate.getValue("type"));
-              message.setJMSExpiration(Long.parseLong(itemUpdate.getValue("expiration")));
-              message.setJMSCorrelationID(itemUpdate.getValue("correlationId"));
-
-              String deliveryTime = itemUpdate.getValue("deliveryTime");
-              if (deliveryTime != null) {
-                message.setJMSDeliveryTime(Long.parseLong(deliveryTime));
-              }
-
-              String messageProperties = itemUpdate.getValue("messageProperties");
-              if (messageProperties != null) {
-                Map<String, Object> properties = JSON.parseAsMap(messageProperties);
-                message.setProperties(properties);
-              }
-
-              String replyDestinationType = itemUpdate.getValue("replyDestinationType");
-              if (replyDestinationType != null) {
-                String replyDestinationName = itemUpdate.getValue("replyDestinationName");
-                switch (DestinationType.valueOf(replyDestinationType)) {
-                  case TOPIC:
-                    message.setJMSReplyTo(
-                        new LSTopic(LSMessageConsumer.this.session, replyDestinationName));
-                    break;
-
-                  case QUEUE:
-                    message.setJMSReplyTo(
-                        new LSQueue(LSMessageConsumer.this.session, replyDestinationName));
-                    break;
-
-                  default:
-                    log.warn(
-                        "Received message with invalid reply destination type: "
-                            + replyDestinationType);
-                    break;
-                }
-              }
-
-              MessageListener listener = null;
-              synchronized (LSMessageConsumer.this) {
-                listener = LSMessageConsumer.this.listener;
-              }
-
-              if (listener != null) {
-                try {
-                  // Call client callback
-                  listener.onMessage(message);
-                } catch (Throwable t) {
-                  log.error(
-                      "Exception while forwarding event to message listener: " + t.getMessage(), t);
-                }
-
-                // Apply acknowledgement
-                applyAcknowledgeMode(message);
-              } else {
-                synchronized (LSMessageConsumer.this) {
-                  // Add message to local queue
-                  messageQueue.add(message);
-
-                  // Signal a message is ready
-                  LSMessageConsumer.this.notifyAll();
-                }
-              }
-            } catch (Throwable t) {
-              log.error("Exception while processing a message: " + t.getMessage(), t);
-            }
-          }
-
-          @Override
-          public void onListenEnd(Subscription subscription) {
-            /* Nothing to do here */
-          }
-
-          @Override
-          public void onListenStart(Subscription subscription) {
-            /* Nothing to do here */
-          }
-
-          @Override
-          public void onRealMaxFrequency(String frequency) {
-            /* Nothing to do here */
-          }
-
-          @Override
-          public void onSubscription() {
-            /* Nothing to do here */
-          }
-
-          @Override
-          public void onSubscriptionError(int code, String message) {
-            /* Nothing to do here */
-          }
-
-          @Override
-          public void onUnsubscription() {
-            /* Nothing to do here */
-          }
-        });
-  }
-
-  /////////////////////////////////////////////////////////////////////////
-  // Package private operations
-
-  LSSessionImpl getLSSession() {
-    return session;
-  }
-
-  LSDestination getLSDestination() {
-    return destination;
-  }
-
-  String getSubscriptionName() {
-    return subscriptionName;
-  }
-
-  boolean isDurable() {
-    return durable;
-  }
-
-  boolean isNoLocal() {
-    return noLocal;
-  }
-
-  boolean isShared() {
-    return shared;
-  }
-
-  synchronized void start() {
-    if (!open) {
-      throw new IllegalStateException("Consumer has been closed");
-    }
-
-    if (!subscription.isSubscribed()) {
-      session.getLSConnection().getLsClient().subscribe(subscription);
-    }
-
-    // Send read command
-    if (listener != null) {
-      readNext();
-    }
-  }
-
-  synchronized void stop() {
-    if (!open) {
-      throw new IllegalStateException("Consumer has been closed");
-    }
-
-    if (subscription.isSubscribed()) {
-      session.getLSConnection().getLsClient().unsubscribe(subscription);
-    }
-  }
-
-  synchronized void clearQueuedMessages() {
-    messageQueue.clear();
-  }
-
-  /////////////////////////////////////////////////////////////////////////
-  // MessageConsumer interface
-
-  @Override
-  public String getMessageSelector() throws JMSException {
-    return selector;
-  }
-
-  @Override
-  public synchronized MessageListener getMessageListener() throws JMSException {
-    return listener;
-  }
-
-  @Override
-  public synchronized void setMessageListener(MessageListener listener) throws JMSException {
-    if (!open) {
-      throw new IllegalStateException("Consumer has been closed");
-    }
-
-    this.listener = listener;
-
-    // Send read command if session is running
-    if (session.isRunning()) {
-      readNext();
-    }
-  }
-
-  @Override
-  public synchronized Message receive() throws JMSException {
-    if (!open) {
-      throw new IllegalStateException("Consumer has been closed");
-    }
-
-    while (messageQueue.size() == 0) {
-      // Send read command if session is running
-      if (session.isRunning()) {
-        this.readNext();
-      }
-
-      // Waits until a message is available
-      try {
-        wait();
-      } catch (InterruptedException ie) {
-        log.error("Exception while waiting for a message: " + ie.getMessage(), ie);
-      }
-    }
-
-    // Get first message from local queue
-    LSMessage<?> message = messageQueue.remove(0);
-
-    // Apply acknowledge mode
-    applyAcknowledgeMode(message);
-
-    // Return the message
-    return message;
-  }
-
-  @Override
-  public synchronized Message receive(long timeout) throws JMSException {
-    if (!open) {
-      throw new IllegalStateException("Consumer has been closed");
-    }
-
-    if (messageQueue.size() == 0) {
-      // Send read command if session is running
-      if (session.isRunning()) {
-        this.readNext();
-      }
-
-      // Waits until a message is available or the timeout expires
-      try {
-        wait(timeout);
-      } catch (InterruptedException ie) {
-        log.error("Exception while waiting for a message: " + ie.getMessage(), ie);
-      }
-    }
-
-    if (messageQueue.size() > 0) {
-      // Get first message from local queue
-      LSMessage<?> message = messageQueue.remove(0);
-
-      // Apply acknowledge mode
-      applyAcknowledgeMode(message);
-
-      // Return the message
-      return message;
-    } else {
-      return null;
-    }
-  }
-
-  @Override
-  public synchronized Message receiveNoWait() throws JMSException {
-    if (!open) {
-      throw new IllegalStateException("Consumer has been closed");
-    }
-
-    if (messageQueue.size() > 0) {
-      // Get first message from local queue
-      LSMessage<?> message = messageQueue.remove(0);
-
-      // Apply acknowledge mode
-      applyAcknowledgeMode(message);
-
-      // Return the message
-      return message;
-    } else {
-      // Send read command if session is running
-      if (session.isRunning()) {
-        this.readNext();
-      }
-
-      return null;
-    }
-  }
-
-  @Override
-  public synchronized void close() throws JMSException {
-    if (!open) {
-      return;
-    }
-
-    open = false;
-    listener = null;
-
-    if (subscription.isSubscribed()) {
-      session.getLSConnection().getLsClient().unsubscribe(subscription);
-    }
-
-    subscription = null;
-
-    // Remove producer from session's producer list
-    session.removeLSSMessageConsumer(this);
-  }
-
-  /////////////////////////////////////////////////////////////////////////
-  // Internals
-
-  synchronized void readNext() {
-    // Avoid a "consumer closed" async exception if
-    // the consumer has been closed already
-    if (!open) {
-      return;
-    }
-
-    // Some acknowledge modes do not need a read command
-    switch (session.getLSAcknowledgeMode()) {
-      case AUTO_ACKNOWLEDGE:
-      case CLIENT_ACKNOWLEDGE:
-      case SESSION_TRANSACTED:
-        // Prepare read command
-        MessageDescriptor readDescriptor =
-            new MessageDescriptor(
-                session.getLSConnection().getJmsConnector(),
-                session.getLSConnection().getClientID(),
-                session.getLocalGuid(),
-                destination.getLSDestinationType(),
-                destination.getName(),
-                subscriptionName,
-                durable,
-                noLocal,
-                shared,
-                session.getLSAcknowledgeMode(),
-                MessageKind.READ_NEXT);
-
-        // Use session GUID as sequence identifier, to guarantee proper message
-        // serialization
-        String sequenceId = session.getLocalGuid().replace('-', '_');
-        String readMessage = JSON.stringify(readDescriptor);
-
-        session
-            .getLSConnection()
-            .getLsClient()
-            .sendMessage(readMessage, sequenceId, -1, null, true);
-        break;
-
-      default:
-        break;
-    }
-  }
-
-  synchronized void applyAcknowledgeMode(LSMessage<?> message) {
-    switch (session.getLSAcknowledgeMode()) {
-      case PRE_ACKNOWLEDGE:
-        // Nothing to do, the message has already been
-        // acknowledged on the adapter
-        break;
-
-      case AUTO_ACKNOWLEDGE:
-        // Ask to read the next message, the message
-        // will be acknowledged automatically by the adapter
-        readNext();
-        break;
-
-      case CLIENT_ACKNOWLEDGE:
-        // Save message for later acknowledge and read the next message
-        session.addLSMessageToBeAcknowledged(message);
-        readNext();
-        break;
-
-      case SESSION_TRANSACTED:
-        // Ask to read the next message, the message
-        // will be acknowledged upon commit
-        readNext();
-        break;
-
-      case DUPS_OK_ACKNOWLEDGE:
-        // Save the message for later acknnowledge and
-        // schedule its acknowledge at lazy time
-        session.addLSMessageToBeAcknowledged(message);
-        session.scheduleMessageAcknowledge();
-        break;
-
-      case INDIVIDUAL_ACKNOWLEDGE:
-        // Save message for later acknowledge
-        session.addLSMessageToBeAcknowledged(message);
-        break;
-    }
-  }
+import org.reactivestreams.Publisher;
+
+/**
+ * An extension of the {@link javax.jms.MessageConsumer} interface to add the JMS Extender-specific
+ * asynchronous, batch and reactive receive operations, along with queue and message loss
+ * statistics.
+ *
+ * <p>Message consumers created by an {@link LSSession} implement this interface, and may be cast to
+ * it to access the additional operations.
+ *
+ * <p>Note that with the acknowledge modes where messages are delivered on demand, the number of
+ * messages a batch may collect is bound by the prefetch window of the session, see {@link
+ * LSSession#setPrefetch(int)}.
+ */
+public interface LSMessageConsumer extends MessageConsumer {
+
+  /**
+   * Receives the next message without blocking the calling thread.
+   *
+   * <p>The returned future completes when a message is available, or with {@code null} when the
+   * consumer is closed. Equivalent to {@code receiveAsync(0)}.
+   *
+   * @return a future of the next message produced for this consumer
+   * @throws JMSException if the JMS provider fails to receive the next message due to some internal
+   *     error
+   * @see #receiveAsync(long)
+   */
+  CompletableFuture<Message> receiveAsync() throws JMSException;
+
+  /**
+   * Receives the next message that arrives within the specified timeout interval, without blocking
+   * the calling thread.
+   *
+   * <p>The returned future completes when a message is available, or with {@code null} when the
+   * timeout expires or the consumer is closed. Pending receives are completed in order of call and
+   * no thread is kept waiting for them: the future is completed by the thread delivering the
+   * message, and timeouts are handled by a single scheduler thread shared by the library. Hence,
+   * dependent actions not specified as asynchronous should not block. The acknowledge mode of the
+   * session is applied before the future completes.
+   *
+   * <p>Cancelling the future withdraws the pending receive, unless a message is already being
+   * delivered to it.
+   *
+   * @param timeout the timeout value (in milliseconds), a timeout of zero never expires
+   * @return a future of the next message produced for this consumer
+   * @throws JMSException if the JMS provider fails to receive the next message due to some internal
+   *     error
+   */
+  CompletableFuture<Message> receiveAsync(long timeout) throws JMSException;
+
+  /**
+   * Receives up to {@code maxMessages} messages in a single call.
+   *
+   * <p>The call blocks until at least one message is available, the timeout expires or the consumer
+   * is closed. Once a message is available, any further message already received by the consumer is
+   * returned along with it, up to the specified limit, without waiting for more messages to arrive.
+   * The acknowledge mode of the session is applied once for the whole batch.
+   *
+   * @param maxMessages the maximum number of messages to be returned, must be greater than zero
+   * @param timeout the timeout value (in milliseconds), a timeout of zero never expires
+   * @return the list of messages received, in order of arrival, or an empty list if the timeout
+   *     expires or the consumer is closed before a message is available
+   * @throws JMSException if the JMS provider fails to receive the messages due to some internal
+   *     error
+   * @throws IllegalArgumentException if {@code maxMessages} is not greater than zero
+   */
+  List<Message> receive(int maxMessages, long timeout) throws JMSException;
+
+  /**
+   * Moves up to {@code maxMessages} messages already received by the consumer to the specified
+   * collection, without waiting for more messages to arrive.
+   *
+   * <p>The acknowledge mode of the session is applied once for the whole batch.
+   *
+   * @param collection the collection to add the messages to, in order of arrival
+   * @param maxMessages the maximum number of messages to be moved, must be greater than zero
+   * @return the number of messages moved
+   * @throws JMSException if the JMS provider fails to receive the messages due to some internal
+   *     error
+   * @throws IllegalArgumentException if {@code maxMessages} is not greater than zero
+   */
+  int drainTo(Collection<? super Message> collection, int maxMessages) throws JMSException;
+
+  /**
+   * Returns the number of messages received by the consumer and waiting to be consumed.
+   *
+   * @return the number of queued messages
+   * @see LSConnectionFactory#setMaxConsumerQueuedMessages(int)
+   */
+  int getQueuedMessageCount();
+
+  /**
+   * Returns an estimate of the memory, in bytes, used by the messages received by the consumer and
+   * waiting to be consumed.
+   *
+   * @return the estimated size of the queued messages, in bytes
+   * @see LSConnectionFactory#setMaxConsumerQueuedBytes(long)
+   */
+  long getQueuedBytes();
+
+  /**
+   * Returns the number of messages directed to the consumer that the Lightstreamer Server has
+   * dropped due to internal resource limitations.
+   *
+   * @return the number of messages dropped by the server
+   */
+  long getLostMessageCount();
+
+  /**
+   * Returns the number of messages found missing from gaps in the sequence of message IDs received
+   * by the consumer.
+   *
+   * <p>Gaps are detected only if message loss detection is enabled (see {@link
+   * LSConnectionFactory#setMessageLossDetection(boolean)}), for non-shared topic consumers with
+   * neither a message selector nor the {@code noLocal} flag, and for message IDs ending with a
+   * sequence number. Otherwise this count is always 0.
+   *
+   * @return the number of messages found missing from message ID gaps
+   */
+  long getMessageIdGapCount();
+
+  /**
+   * Returns the number of messages discarded by the consumer because they expired before being
+   * delivered.
+   *
+   * <p>Expired messages are discarded only if enabled, see {@link
+   * LSConnectionFactory#setDiscardExpiredMessages(boolean)}. Otherwise this count is always 0.
+   *
+   * @return the number of expired messages discarded
+   */
+  long getExpiredMessageCount();
+
+  /**
+   * Returns a Reactive Streams {@code Publisher} of the messages received by this consumer.
+   *
+   * <p>The publisher accepts a single subscriber for the whole life of the consumer. With the
+   * {@link javax.jms.Session#AUTO_ACKNOWLEDGE} acknowledge mode, the demand signaled by the
+   * subscriber is turned directly into message requests to the JMS Extender, in place of the
+   * prefetch window of the session, with up to 1024 requests outstanding. With the {@link
+   * javax.jms.Session#CLIENT_ACKNOWLEDGE} and {@link javax.jms.Session#SESSION_TRANSACTED} modes
+   * messages are requested one at a time whatever the demand, as for the prefetch window (see
+   * {@link LSSession#setPrefetch(int)}). With the other acknowledge modes messages are pushed by
+   * the JMS Extender and wait in the consumer queue until requested, see {@link
+   * LSConnectionFactory#setMaxConsumerQueuedMessages(int)} to bound it. The acknowledge mode of the
+   * session is applied to each message after the subscriber's {@code onNext} returns.
+   *
+   * <p>Cancelling the subscription closes the consumer, while closing the consumer completes the
+   * subscription. Subscribing fails with a {@link javax.jms.IllegalStateException} if the consumer
+   * has a message listener or already has a subscriber, and setting a message listener fails once a
+   * subscriber is attached. Messages should not be received with the {@code receive} operations
+   * while a subscriber is attached.
+   *
+   * @return a publisher of the messages received by this consumer
+   */
+  Publisher<Message> toPublisher();
 }
@@ -0,0 +1,1439 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+import com.lightstreamer.client.ItemUpdate;
+import com.lightstreamer.client.Subscription;
+import com.lightstreamer.client.SubscriptionListener;
+import com.lightstreamer.jms.descriptors.AcknowledgeMode;
+import com.lightstreamer.jms.descriptors.DestinationType;
+import com.lightstreamer.jms.descriptors.ItemDescriptor;
+import com.lightstreamer.jms.descriptors.MessageDescriptor;
+import com.lightstreamer.jms.descriptors.MessageKind;
+import com.lightstreamer.jms.selector.Selector;
+import com.lightstreamer.jms.utils.JSON;
+import com.lightstreamer.log.LogManager;
+import com.lightstreamer.log.Logger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jms.InvalidSelectorException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import org.reactivestreams.Publisher;
+
+class LSMessageConsumerImpl implements LSMessageConsumer {
+
+  private static final Logger log = LogManager.getLogger("lightstreamer.jms.consumer");
+
+  // Estimated heap usage of a received message, besides its payload and properties
+  private static final int MESSAGE_OVERHEAD = 512;
+
+  // Maximum read commands outstanding on behalf of a reactive subscriber,
+  // so that unbounded demand does not flood the JMS Extender
+  private static final int MAX_PUBLISHER_CREDITS = 1024;
+
+  // Message ID of the serialized acknowledge command, replaced by the actual one
+  private static final String ACK_MESSAGE_ID_PLACEHOLDER = "\u0000messageId\u0000";
+
+  protected final LSSessionImpl session;
+  protected final LSDestination destination;
+  protected final String subscriptionName;
+  protected final boolean durable;
+  protected final boolean noLocal;
+  protected final boolean shared;
+  protected final String selector;
+
+  // Selector evaluated on the client, as the subscription shared with other consumers
+  // carries none, and the selector sent to the JMS Extender otherwise
+  private final Selector localSelector;
+  private final String serverSelector;
+
+  private MessageListener listener;
+
+  // Asynchronous receives waiting for a message, in order of call
+  private final Queue<ReceiveFuture> pendingReceives;
+
+  // Reactive subscriber the messages are delivered to, if any
+  private volatile LSMessagePublisher.MessageSubscription publisher;
+  private final LSMessageQueue messageQueue;
+  private volatile boolean open;
+
+  // Number of messages requested to the JMS Extender and not yet received
+  private int credits;
+
+  // Serializes listener calls on the connection's dispatch executor, if any
+  private final SerialExecutor dispatcher;
+
+  // Number of messages handed over to the dispatcher and not yet delivered
+  private int pendingDispatches;
+
+  // Set when the queue exceeds its limits, until it drains below the low watermark
+  private volatile boolean paused;
+
+  // Messages dropped by the server and found missing from message ID gaps
+  private final AtomicLong lostMessages;
+  private final AtomicLong messageIdGaps;
+
+  // Expired messages discarded, and those skipped by the queue waiting to be
+  // acknowledged on the scheduler thread, as the queue may be polled with locks held
+  private final boolean discardExpired;
+  private final AtomicLong expiredMessages;
+  private final ConcurrentLinkedQueue<LSMessage<?>> expiredToAcknowledge;
+  private final AtomicBoolean expiredAcknowledgeScheduled;
+
+  // Gap detection is off if not eligible; the detector, accessed only on the Lightstreamer
+  // event thread, is null with a shared subscription, which detects gaps for all its members
+  private final boolean gapDetection;
+  private final LSGapDetector gapDetector;
+
+  // Recent message IDs, accessed only on the Lightstreamer event thread, null if disabled
+  private final LSDuplicateFilter duplicateFilter;
+
+  // Fields requested to the JMS Extender and their positions
+  private final LSConsumerSchema schema;
+
+  private Subscription subscription;
+
+  // Subscription shared with identical consumers, null if the consumer has its own
+  private final LSMultiplexedSubscription multiplexedSubscription;
+
+  // Acknowledge command serialized once, lazily, split around the message ID,
+  // or empty if it can't be split and each command is serialized in full
+  private volatile String[] ackTemplate;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Receive future implementation
+
+  private class ReceiveFuture extends CompletableFuture<Message> {
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      // Once dequeued, the receive is being completed with a message
+      synchronized (pendingReceives) {
+        if (!pendingReceives.remove(this)) {
+          return false;
+        }
+      }
+
+      return super.cancel(mayInterruptIfRunning);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  LSMessageConsumerImpl(
+      LSSessionImpl session,
+      LSDestination destination,
+      String subscriptionName,
+      boolean durable,
+      boolean noLocal,
+      boolean shared,
+      String selector)
+      throws InvalidSelectorException {
+
+    this.session = session;
+    this.destination = destination;
+    this.subscriptionName = subscriptionName;
+    this.durable = durable;
+    this.noLocal = noLocal;
+    this.shared = shared;
+    this.selector = selector;
+
+    // Invalid selectors are rejected before subscribing, also
+    // because those evaluated locally never reach the JMS Extender
+    Selector compiledSelector =
+        ((selector != null) && !selector.trim().isEmpty()) ? Selector.compile(selector) : null;
+
+    this.discardExpired = session.getLSConnection().isDiscardExpiredMessages();
+    this.expiredMessages = new AtomicLong();
+    this.expiredToAcknowledge = new ConcurrentLinkedQueue<LSMessage<?>>();
+    this.expiredAcknowledgeScheduled = new AtomicBoolean();
+
+    this.messageQueue =
+        new LSMessageQueue(
+            session.getLSConnection().getQueuedBytes(),
+            session.isPriorityOrdering(),
+            discardExpired ? this::onMessageExpired : null);
+    this.pendingReceives = new ArrayDeque<ReceiveFuture>();
+    this.open = true;
+
+    Executor dispatchExecutor = session.getLSConnection().getDispatchExecutor();
+    this.dispatcher = (dispatchExecutor != null) ? new SerialExecutor(dispatchExecutor) : null;
+
+    this.schema = LSConsumerSchema.forFields(session.getConsumerFields());
+
+    // A selector on requested fields only is evaluated locally, so that
+    // consumers with different selectors may share the same subscription
+    if ((compiledSelector != null) && isMultiplexable() && isLocallyEvaluable(compiledSelector)) {
+      this.localSelector = compiledSelector;
+      this.serverSelector = null;
+    } else {
+      this.localSelector = null;
+      this.serverSelector = selector;
+    }
+
+    this.lostMessages = new AtomicLong();
+    this.messageIdGaps = new AtomicLong();
+
+    // Only topic consumers receiving every message have sequential IDs
+    this.gapDetection =
+        session.getLSConnection().isMessageLossDetection()
+            && (destination.getLSDestinationType() == DestinationType.TOPIC)
+            && !shared
+            && !noLocal
+            && ((serverSelector == null) || serverSelector.trim().isEmpty());
+
+    this.duplicateFilter = createDuplicateFilter();
+
+    // Plain topic consumers may share the subscription of an identical consumer
+    String multiplexingKey = getMultiplexingKey();
+    this.gapDetector = (gapDetection && (multiplexingKey == null)) ? new LSGapDetector() : null;
+
+    if (multiplexingKey != null) {
+      this.multiplexedSubscription =
+          session.getLSConnection().joinMultiplexedSubscription(multiplexingKey, this);
+      this.subscription = null;
+      return;
+    }
+
+    this.multiplexedSubscription = null;
+    this.subscription = createSubscription();
+
+    subscription.addListener(
+        new SubscriptionListener() {
+
+          @Override
+          public void onClearSnapshot(String itemName, int itemPos) {
+            /* Nothing to do here */
+          }
+
+          @Override
+          public void onCommandSecondLevelItemLostUpdates(int lostUpdates, String key) {
+            /* Nothing to do here */
+          }
+
+          @Override
+          public void onCommandSecondLevelSubscriptionError(int code, String message, String key) {
+            /* Nothing to do here */
+          }
+
+          @Override
+          public void onEndOfSnapshot(String itemName, int itemPos) {
+            /* Nothing to do here */
+          }
+
+          @Override
+          public void onItemLostUpdates(String itemName, int itemPos, int lostUpdates) {
+            LSMessageConsumerImpl.this.onItemLostUpdates(lostUpdates);
+          }
+
+          @Override
+          public void onItemUpdate(ItemUpdate itemUpdate) {
+            LSMessageConsumerImpl.this.onItemUpdate(itemUpdate);
+          }
+
+          @Override
+          public void onListenEnd(Subscription subscription) {
+            /* Nothing to do here */
+          }
+
+          @Override
+          public void onListenStart(Subscription subscription) {
+            /* Nothing to do here */
+          }
+
+          @Override
+          public void onRealMaxFrequency(String frequency) {
+            /* Nothing to do here */
+          }
+
+          @Override
+          public void onSubscription() {
+            /* Nothing to do here */
+          }
+
+          @Override
+          public void onSubscriptionError(int code, String message) {
+            /* Nothing to do here */
+          }
+
+          @Override
+          public void onUnsubscription() {
+            /* Nothing to do here */
+          }
+        });
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  LSSessionImpl getLSSession() {
+    return session;
+  }
+
+  LSDestination getLSDestination() {
+    return destination;
+  }
+
+  String getSubscriptionName() {
+    return subscriptionName;
+  }
+
+  boolean isDurable() {
+    return durable;
+  }
+
+  boolean isNoLocal() {
+    return noLocal;
+  }
+
+  boolean isShared() {
+    return shared;
+  }
+
+  String formatAcknowledge(String messageId) {
+    String[] template = ackTemplate;
+    if (template == null) {
+      template = createAcknowledgeTemplate();
+      ackTemplate = template;
+    }
+
+    if (template.length == 0) {
+      return JSON.stringify(createAcknowledgeDescriptor(messageId));
+    }
+
+    return template[0] + JSON.stringify(messageId) + template[1];
+  }
+
+  Subscription createSubscription() {
+    String consumerItem = JSON.stringify(createItemDescriptor(session.getLocalGuid()));
+
+    Subscription subscription = new Subscription("RAW", consumerItem, schema.getFields());
+
+    subscription.setDataAdapter(session.getLSConnection().getJmsConnector());
+    subscription.setRequestedSnapshot("no");
+
+    return subscription;
+  }
+
+  void onItemUpdate(ItemUpdate itemUpdate) {
+    try {
+      // Only raw fields are stored here: body, properties and headers
+      // are decoded on first access, outside the Lightstreamer event thread.
+      // Fields are read by position, those not requested are null
+      String messageKind = valueAt(itemUpdate, schema.messageKind);
+      String payload = valueAt(itemUpdate, schema.payload);
+      String properties = valueAt(itemUpdate, schema.properties);
+      String messageId = valueAt(itemUpdate, schema.messageId);
+
+      // Duplicates are dropped before anything is allocated for them
+      if ((duplicateFilter != null) && duplicateFilter.isDuplicate(messageId)) {
+        log.debug("Discarding duplicate message " + messageId);
+        return;
+      }
+
+      LSMessage<?> message = null;
+      switch (messageKind) {
+        case "TEXT_MSG":
+          message = new LSTextMessage(session);
+          ((LSTextMessage) message).setText(payload);
+          break;
+
+        case "OBJECT_MSG":
+          message = new LSObjectMessage(session);
+          ((LSObjectMessage) message)
+              .setEncodedObject(valueAt(itemUpdate, schema.classFqn), payload);
+          break;
+
+        case "MAP_MSG":
+          message = new LSMapMessage(session);
+          ((LSMapMessage) message).setEncodedMap(payload);
+          break;
+
+        case "BYTES_MSG":
+          message = new LSBytesMessage(session);
+          ((LSBytesMessage) message).setEncodedBytes(payload);
+          break;
+
+        default:
+          break;
+      }
+
+      // No message, no party
+      if (message == null) {
+        // Replace the lost message, or the prefetch window would shrink
+        consumeCredit();
+        fillPrefetchWindow();
+        return;
+      }
+
+      if (gapDetector != null) {
+        long gap = gapDetector.detectGap(messageId);
+        if (gap > 0) {
+          countLostMessages(gap, true);
+
+          log.warn(
+              "Gap of "
+                  + gap
+                  + " message(s) detected before message "
+                  + messageId
+                  + " for destination "
+                  + destination.getName());
+
+          session.getLSConnection().onMessagesLost(destination.getName(), gap, true);
+        }
+      }
+
+      // Skip the raw headers altogether when the consumer requested none
+      LSMessage.RawHeaders rawHeaders = null;
+      if (schema.hasHeaders) {
+        rawHeaders =
+            new LSMessage.RawHeaders(
+                valueAt(itemUpdate, schema.timestamp),
+                valueAt(itemUpdate, schema.redelivered),
+                valueAt(itemUpdate, schema.deliveryMode),
+                valueAt(itemUpdate, schema.priority),
+                valueAt(itemUpdate, schema.expiration),
+                valueAt(itemUpdate, schema.deliveryTime),
+                valueAt(itemUpdate, schema.replyDestinationType),
+                valueAt(itemUpdate, schema.replyDestinationName));
+      }
+
+      message.initReceived(
+          this,
+          messageId,
+          valueAt(itemUpdate, schema.type),
+          valueAt(itemUpdate, schema.correlationId),
+          properties,
+          rawHeaders,
+          estimateSize(payload, properties));
+
+      // Messages of a shared subscription are filtered by each member
+      if ((localSelector != null) && !localSelector.matches(message)) {
+        return;
+      }
+
+      deliverMessage(message);
+    } catch (Throwable t) {
+      log.error("Exception while processing a message: " + t.getMessage(), t);
+    }
+  }
+
+  void onItemLostUpdates(int lostUpdates) {
+    countLostMessages(lostUpdates, false);
+
+    log.warn(
+        "Server dropped " + lostUpdates + " message(s) for destination " + destination.getName());
+
+    session.getLSConnection().onMessagesLost(destination.getName(), lostUpdates, false);
+  }
+
+  void countLostMessages(long count, boolean sequenceGap) {
+    if (sequenceGap) {
+      messageIdGaps.addAndGet(count);
+    } else {
+      lostMessages.addAndGet(count);
+    }
+  }
+
+  Object getAcknowledgeKey() {
+    // Consumers sharing a subscription are a single consumer for the JMS Extender, so that
+    // the message last consumed by any of them acknowledges the whole subscription
+    return (multiplexedSubscription != null) ? multiplexedSubscription : this;
+  }
+
+  boolean isGapDetection() {
+    return gapDetection;
+  }
+
+  LSConsumerSchema getSchema() {
+    return schema;
+  }
+
+  synchronized void start() {
+    if (!open) {
+      throw new IllegalStateException("Consumer has been closed");
+    }
+
+    if (multiplexedSubscription != null) {
+      // Subscribed along with the first started member
+      multiplexedSubscription.start(this);
+
+    } else if (!subscription.isSubscribed() && !(paused && isPushMode())) {
+      // A paused push-mode consumer subscribes again when resumed
+      session.getLSConnection().getLsClient().subscribe(subscription);
+    }
+
+    // Send read commands if messages are awaited
+    if ((listener != null)
+        || (publisher != null)
+        || messageQueue.hasWaiters()
+        || hasPendingReceives()) {
+      fillPrefetchWindow();
+    }
+  }
+
+  synchronized void stop() {
+    if (!open) {
+      throw new IllegalStateException("Consumer has been closed");
+    }
+
+    if (multiplexedSubscription != null) {
+      multiplexedSubscription.stop(this);
+
+    } else if (subscription.isSubscribed()) {
+      session.getLSConnection().getLsClient().unsubscribe(subscription);
+    }
+
+    // Read commands already sent stay in the count, as the
+    // JMS Extender may still deliver them once restarted
+  }
+
+  void clearQueuedMessages() {
+    messageQueue.clear();
+    onMessagesDequeued();
+  }
+
+  synchronized void attachPublisher(LSMessagePublisher.MessageSubscription publisher)
+      throws JMSException {
+
+    if (!open) {
+      throw new IllegalStateException("Consumer has been closed");
+    }
+
+    if (listener != null) {
+      throw new javax.jms.IllegalStateException("Consumer has a message listener");
+    }
+
+    if (this.publisher != null) {
+      throw new javax.jms.IllegalStateException("Consumer already has a subscriber");
+    }
+
+    this.publisher = publisher;
+  }
+
+  LSMessage<?> pollForPublisher() {
+    LSMessage<?> message = messageQueue.poll();
+    if (message != null) {
+      onMessagesDequeued();
+    }
+
+    return message;
+  }
+
+  boolean isDrainedAndClosed() {
+    return !open && (messageQueue.size() == 0);
+  }
+
+  void requestMessages() {
+    // Send read commands if session is running
+    if (session.isRunning()) {
+      fillPrefetchWindow();
+    }
+  }
+
+  synchronized void resumeIfDrained() {
+    if (!paused || !open || !isQueueBelowLowWatermark()) {
+      return;
+    }
+
+    paused = false;
+    session.getLSConnection().removePausedConsumer(this);
+
+    if (multiplexedSubscription != null) {
+      // Subscribed again once no member is paused
+      multiplexedSubscription.resume(this);
+
+    } else if (isPushMode()) {
+      // Subscribe again, unless the session has been stopped in the meantime
+      if (session.isRunning() && !subscription.isActive()) {
+        session.getLSConnection().getLsClient().subscribe(subscription);
+      }
+
+    } else if (session.isRunning()) {
+      fillPrefetchWindow();
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // MessageConsumer interface
+
+  @Override
+  public String getMessageSelector() throws JMSException {
+    return selector;
+  }
+
+  @Override
+  public synchronized MessageListener getMessageListener() throws JMSException {
+    return listener;
+  }
+
+  @Override
+  public synchronized void setMessageListener(MessageListener listener) throws JMSException {
+    if (!open) {
+      throw new IllegalStateException("Consumer has been closed");
+    }
+
+    if (publisher != null) {
+      throw new javax.jms.IllegalStateException("Consumer is bound to a reactive subscriber");
+    }
+
+    this.listener = listener;
+
+    // Send read commands if session is running
+    if (session.isRunning()) {
+      fillPrefetchWindow();
+    }
+  }
+
+  @Override
+  public Message receive() throws JMSException {
+    return receive(0);
+  }
+
+  @Override
+  public Message receive(long timeout) throws JMSException {
+    if (!open) {
+      throw new IllegalStateException("Consumer has been closed");
+    }
+
+    // Get first message from local queue
+    LSMessage<?> message = messageQueue.poll();
+
+    if (message == null) {
+      // Send read commands if session is running
+      if (session.isRunning()) {
+        fillPrefetchWindow();
+      }
+
+      // Waits until a message is available, the timeout expires or the consumer is closed
+      try {
+        message = messageQueue.poll(timeout);
+      } catch (InterruptedException ie) {
+        log.error("Exception while waiting for a message: " + ie.getMessage(), ie);
+
+        // Restore the interrupted status for the caller
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if (message == null) {
+      return null;
+    }
+
+    onMessagesDequeued();
+
+    // Apply acknowledge mode
+    applyAcknowledgeMode(message);
+
+    // Return the message
+    return message;
+  }
+
+  @Override
+  public Message receiveNoWait() throws JMSException {
+    if (!open) {
+      throw new IllegalStateException("Consumer has been closed");
+    }
+
+    // Get first message from local queue
+    LSMessage<?> message = messageQueue.poll();
+
+    if (message == null) {
+      // Send read commands if session is running
+      if (session.isRunning()) {
+        fillPrefetchWindow();
+      }
+
+      return null;
+    }
+
+    onMessagesDequeued();
+
+    // Apply acknowledge mode
+    applyAcknowledgeMode(message);
+
+    // Return the message
+    return message;
+  }
+
+  @Override
+  public void close() throws JMSException {
+    int discarded = 0;
+    synchronized (this) {
+      if (!open) {
+        return;
+      }
+
+      open = false;
+      listener = null;
+
+      // Wake up threads waiting in a receive and release queued messages
+      messageQueue.close();
+      discarded = messageQueue.clear();
+
+      paused = false;
+      session.getLSConnection().removePausedConsumer(this);
+
+      if (multiplexedSubscription != null) {
+        // The last member to leave unsubscribes
+        session.getLSConnection().leaveMultiplexedSubscription(multiplexedSubscription, this);
+
+      } else if (subscription.isSubscribed()) {
+        session.getLSConnection().getLsClient().unsubscribe(subscription);
+      }
+
+      subscription = null;
+
+      // Remove producer from session's producer list
+      session.removeLSSMessageConsumer(this);
+    }
+
+    // Messages still queued were already delivered by the JMS Extender
+    // and will not be redelivered, e.g. those prefetched in advance
+    if (discarded > 0) {
+      log.warn(
+          "Consumer closed with "
+              + discarded
+              + " undelivered message(s) discarded for destination "
+              + destination.getName());
+    }
+
+    // Released memory may let other consumers resume, not synchronized
+    // as resuming locks them
+    onMessagesDequeued();
+
+    // Pending asynchronous receives complete with no message, as blocked ones
+    List<ReceiveFuture> receives = null;
+    synchronized (pendingReceives) {
+      receives = new ArrayList<ReceiveFuture>(pendingReceives);
+      pendingReceives.clear();
+    }
+
+    for (ReceiveFuture receive : receives) {
+      receive.complete(null);
+    }
+
+    // Complete the reactive subscriber, if any
+    LSMessagePublisher.MessageSubscription publisher = this.publisher;
+    if (publisher != null) {
+      publisher.drain();
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // LSMessageConsumer interface
+
+  @Override
+  public CompletableFuture<Message> receiveAsync() throws JMSException {
+    return receiveAsync(0);
+  }
+
+  @Override
+  public CompletableFuture<Message> receiveAsync(long timeout) throws JMSException {
+    if (!open) {
+      throw new IllegalStateException("Consumer has been closed");
+    }
+
+    ReceiveFuture receive = new ReceiveFuture();
+
+    // Get first message from local queue
+    LSMessage<?> message = messageQueue.poll();
+    if (message != null) {
+      onMessagesDequeued();
+
+      // Apply acknowledge mode
+      applyAcknowledgeMode(message);
+
+      receive.complete(message);
+      return receive;
+    }
+
+    synchronized (pendingReceives) {
+      pendingReceives.offer(receive);
+    }
+
+    if (timeout > 0) {
+      // Timeouts run on the shared scheduler, no thread waits for the message
+      ScheduledFuture<?> timer =
+          LSScheduler.schedule(
+              () -> {
+                synchronized (pendingReceives) {
+                  if (!pendingReceives.remove(receive)) {
+                    return;
+                  }
+                }
+
+                receive.complete(null);
+              },
+              timeout);
+
+      receive.whenComplete((received, error) -> timer.cancel(false));
+    }
+
+    // Send read commands if session is running
+    if (session.isRunning()) {
+      fillPrefetchWindow();
+    }
+
+    // A message may have arrived in the meantime
+    completePendingReceives();
+
+    return receive;
+  }
+
+  @Override
+  public List<Message> receive(int maxMessages, long timeout) throws JMSException {
+    if (maxMessages < 1) {
+      throw new IllegalArgumentException("Max messages must be greater than zero");
+    }
+
+    if (!open) {
+      throw new IllegalStateException("Consumer has been closed");
+    }
+
+    // Get first message from local queue
+    LSMessage<?> message = messageQueue.poll();
+
+    if (message == null) {
+      // Send read commands if session is running
+      if (session.isRunning()) {
+        fillPrefetchWindow();
+      }
+
+      // Waits until a message is available, the timeout expires or the consumer is closed
+      try {
+        message = messageQueue.poll(timeout);
+      } catch (InterruptedException ie) {
+        log.error("Exception while waiting for a message: " + ie.getMessage(), ie);
+
+        // Restore the interrupted status for the caller
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if (message == null) {
+      return new ArrayList<Message>();
+    }
+
+    // Add the messages already queued, without waiting for more
+    List<LSMessage<?>> batch = new ArrayList<LSMessage<?>>();
+    batch.add(message);
+    messageQueue.drainTo(batch, maxMessages - 1);
+    onMessagesDequeued();
+
+    // Apply acknowledge mode once for the whole batch
+    applyAcknowledgeMode(batch);
+
+    return new ArrayList<Message>(batch);
+  }
+
+  @Override
+  public int drainTo(Collection<? super Message> collection, int maxMessages) throws JMSException {
+    if (maxMessages < 1) {
+      throw new IllegalArgumentException("Max messages must be greater than zero");
+    }
+
+    if (!open) {
+      throw new IllegalStateException("Consumer has been closed");
+    }
+
+    List<LSMessage<?>> batch = new ArrayList<LSMessage<?>>();
+    int count = messageQueue.drainTo(batch, maxMessages);
+
+    if (count == 0) {
+      // Send read commands if session is running
+      if (session.isRunning()) {
+        fillPrefetchWindow();
+      }
+
+      return 0;
+    }
+
+    onMessagesDequeued();
+
+    // Apply acknowledge mode once for the whole batch
+    applyAcknowledgeMode(batch);
+
+    collection.addAll(batch);
+    return count;
+  }
+
+  @Override
+  public int getQueuedMessageCount() {
+    return messageQueue.size();
+  }
+
+  @Override
+  public long getQueuedBytes() {
+    return messageQueue.bytes();
+  }
+
+  @Override
+  public Publisher<Message> toPublisher() {
+    return new LSMessagePublisher(this);
+  }
+
+  @Override
+  public long getLostMessageCount() {
+    return lostMessages.get();
+  }
+
+  @Override
+  public long getMessageIdGapCount() {
+    return messageIdGaps.get();
+  }
+
+  @Override
+  public long getExpiredMessageCount() {
+    return expiredMessages.get();
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Internals
+
+  private MessageDescriptor createAcknowledgeDescriptor(String messageId) {
+    return new MessageDescriptor(
+        session.getLSConnection().getJmsConnector(),
+        session.getLSConnection().getClientID(),
+        session.getLocalGuid(),
+        destination.getLSDestinationType(),
+        destination.getName(),
+        subscriptionName,
+        durable,
+        noLocal,
+        shared,
+        session.getLSAcknowledgeMode(),
+        MessageKind.ACKNOWLEDGE,
+        messageId);
+  }
+
+  private String[] createAcknowledgeTemplate() {
+    // Let the descriptor's own serializer place the message ID,
+    // then split the command where the placeholder landed
+    String ackMessage = JSON.stringify(createAcknowledgeDescriptor(ACK_MESSAGE_ID_PLACEHOLDER));
+    String placeholder = JSON.stringify(ACK_MESSAGE_ID_PLACEHOLDER);
+
+    int index = (ackMessage != null) ? ackMessage.indexOf(placeholder) : -1;
+    if ((index >= 0) && (index == ackMessage.lastIndexOf(placeholder))) {
+      String[] template =
+          new String[] {
+            ackMessage.substring(0, index), ackMessage.substring(index + placeholder.length())
+          };
+
+      // Check once that the template yields the very same command
+      String sampleId = "ID:" + session.getLocalGuid();
+      String sample = template[0] + JSON.stringify(sampleId) + template[1];
+      if (sample.equals(JSON.stringify(createAcknowledgeDescriptor(sampleId)))) {
+        return template;
+      }
+    }
+
+    log.warn("Acknowledge command template not available, commands will be serialized in full");
+    return new String[0];
+  }
+
+  private ItemDescriptor createItemDescriptor(String sessionGuid) {
+    return new ItemDescriptor(
+        session.getLSConnection().getJmsConnector(),
+        null,
+        session.getLSConnection().getClientID(),
+        sessionGuid,
+        destination.getLSDestinationType(),
+        destination.getName(),
+        subscriptionName,
+        durable,
+        noLocal,
+        shared,
+        session.getLSAcknowledgeMode(),
+        serverSelector);
+  }
+
+  private boolean isMultiplexable() {
+    // Only plain non-durable topic consumers are eligible
+    if (!session.getLSConnection().isConsumerMultiplexing()
+        || (destination.getLSDestinationType() != DestinationType.TOPIC)
+        || durable
+        || shared
+        || (subscriptionName != null)) {
+      return false;
+    }
+
+    switch (session.getLSAcknowledgeMode()) {
+      case PRE_ACKNOWLEDGE:
+      case DUPS_OK_ACKNOWLEDGE:
+        return true;
+
+      default:
+        // Messages must be requested or acknowledged by each consumer
+        return false;
+    }
+  }
+
+  private boolean isLocallyEvaluable(Selector compiledSelector) {
+    // Every header and property the selector refers to must be requested,
+    // or it would evaluate to unknown where the JMS Extender would not
+    for (String identifier : compiledSelector.getIdentifiers()) {
+      int position;
+      switch (identifier) {
+        case "JMSDeliveryMode":
+          position = schema.deliveryMode;
+          break;
+
+        case "JMSPriority":
+          position = schema.priority;
+          break;
+
+        case "JMSMessageID":
+          position = schema.messageId;
+          break;
+
+        case "JMSTimestamp":
+          position = schema.timestamp;
+          break;
+
+        case "JMSCorrelationID":
+          position = schema.correlationId;
+          break;
+
+        case "JMSType":
+          position = schema.type;
+          break;
+
+        default:
+          position = schema.properties;
+          break;
+      }
+
+      if (position == 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private String getMultiplexingKey() {
+    if (!isMultiplexable()) {
+      return null;
+    }
+
+    // Consumers with the same item descriptor and schema receive the same
+    // messages, so they identify the subscription to share
+    switch (session.getLSAcknowledgeMode()) {
+      case PRE_ACKNOWLEDGE:
+        // Nothing is acknowledged, consumers of any session may share it,
+        // unless messages of the local session must be filtered out
+        return JSON.stringify(createItemDescriptor(noLocal ? session.getLocalGuid() : null))
+            + schema.getKey();
+
+      case DUPS_OK_ACKNOWLEDGE:
+        // Acknowledgements refer to the session, only its own consumers may share it
+        return JSON.stringify(createItemDescriptor(session.getLocalGuid())) + schema.getKey();
+
+      default:
+        return null;
+    }
+  }
+
+  synchronized void fillPrefetchWindow() {
+    // Avoid a "consumer closed" async exception if
+    // the consumer has been closed already
+    if (!open) {
+      return;
+    }
+
+    // Stop requesting messages while the queue is over its limits
+    if (paused) {
+      return;
+    }
+
+    // Some acknowledge modes do not need a read command
+    switch (session.getLSAcknowledgeMode()) {
+      case AUTO_ACKNOWLEDGE:
+      case CLIENT_ACKNOWLEDGE:
+      case SESSION_TRANSACTED:
+        // Request messages until requested and not yet consumed
+        // ones fill the prefetch window
+        int window = getPrefetchWindow();
+        while (credits + messageQueue.size() + pendingDispatches < window) {
+          readNext();
+          credits++;
+        }
+        break;
+
+      default:
+        break;
+    }
+  }
+
+  private boolean hasPendingReceives() {
+    synchronized (pendingReceives) {
+      return !pendingReceives.isEmpty();
+    }
+  }
+
+  private void completePendingReceives() {
+    while (true) {
+      ReceiveFuture receive = null;
+      LSMessage<?> message = null;
+
+      // Pair the first receive with the first message, atomically with respect to
+      // timeouts and cancellations, so that a dequeued message is never lost
+      synchronized (pendingReceives) {
+        receive = pendingReceives.peek();
+        if (receive == null) {
+          return;
+        }
+
+        message = messageQueue.poll();
+        if (message == null) {
+          return;
+        }
+
+        pendingReceives.poll();
+      }
+
+      onMessagesDequeued();
+
+      // Apply acknowledge mode before the caller gets the message
+      applyAcknowledgeMode(message);
+
+      receive.complete(message);
+    }
+  }
+
+  private int getPrefetchWindow() {
+    // Messages prefetched with client acknowledge or transactions would be
+    // held by the client and lost on recover, rollback or close
+    boolean autoAcknowledge = (session.getLSAcknowledgeMode() == AcknowledgeMode.AUTO_ACKNOWLEDGE);
+
+    LSMessagePublisher.MessageSubscription publisher = this.publisher;
+    if (publisher == null) {
+      return autoAcknowledge ? session.getPrefetch() : 1;
+    }
+
+    // The demand of a reactive subscriber maps directly onto read commands
+    return (int) Math.min(publisher.getDemand(), autoAcknowledge ? MAX_PUBLISHER_CREDITS : 1);
+  }
+
+  private void deliverMessage(LSMessage<?> message) {
+    MessageListener listener = null;
+    synchronized (this) {
+      // Late updates after closing are dropped
+      if (!open) {
+        return;
+      }
+
+      listener = this.listener;
+    }
+
+    // Expired messages are not even queued
+    if (discardExpired && message.isExpired(System.currentTimeMillis())) {
+      consumeCredit();
+      discardExpiredMessage(message);
+      return;
+    }
+
+    if (listener == null) {
+      // Add message to local queue, waking up a waiting receive if any
+      messageQueue.offer(message);
+      consumeCredit();
+      checkQueueLimits();
+
+      // Hand the message over to the reactive subscriber, if any
+      LSMessagePublisher.MessageSubscription publisher = this.publisher;
+      if (publisher != null) {
+        publisher.drain();
+      }
+
+      // Complete waiting asynchronous receives, if any
+      completePendingReceives();
+      return;
+    }
+
+    if (dispatcher == null) {
+      // Call the listener on the current thread
+      consumeCredit();
+      callMessageListener(listener, message);
+      return;
+    }
+
+    // Keep the message in the prefetch window until it is delivered
+    synchronized (this) {
+      consumeCredit();
+      pendingDispatches++;
+    }
+
+    dispatcher.execute(
+        () -> {
+          MessageListener currentListener = null;
+          synchronized (LSMessageConsumerImpl.this) {
+            pendingDispatches--;
+
+            // Messages still pending when the consumer is closed are dropped
+            if (open) {
+              currentListener = LSMessageConsumerImpl.this.listener;
+              if (currentListener == null) {
+                // The listener has been removed in the meantime, leave the message to receive
+                messageQueue.offer(message);
+                checkQueueLimits();
+              }
+            }
+          }
+
+          if (currentListener == null) {
+            return;
+          }
+
+          // The message may have expired while waiting to be dispatched
+          if (discardExpired && message.isExpired(System.currentTimeMillis())) {
+            discardExpiredMessage(message);
+            return;
+          }
+
+          callMessageListener(currentListener, message);
+        });
+  }
+
+  private void callMessageListener(MessageListener listener, LSMessage<?> message) {
+    try {
+      // Call client callback
+      listener.onMessage(message);
+    } catch (Throwable t) {
+      log.error("Exception while forwarding event to message listener: " + t.getMessage(), t);
+    }
+
+    // Apply acknowledgement
+    applyAcknowledgeMode(message);
+  }
+
+  private boolean isPushMode() {
+    // Messages are pushed by the JMS Extender without read commands
+    switch (session.getLSAcknowledgeMode()) {
+      case DUPS_OK_ACKNOWLEDGE:
+      case PRE_ACKNOWLEDGE:
+      case INDIVIDUAL_ACKNOWLEDGE:
+        return true;
+
+      default:
+        return false;
+    }
+  }
+
+  private synchronized void checkQueueLimits() {
+    if (paused || !open || !isQueueOverLimits()) {
+      return;
+    }
+
+    paused = true;
+    session.getLSConnection().addPausedConsumer(this);
+
+    // Pull-mode consumers just stop requesting messages, push-mode
+    // ones must stop the JMS Extender from sending more
+    if (multiplexedSubscription != null) {
+      multiplexedSubscription.pause(this);
+
+    } else if (isPushMode() && subscription.isActive()) {
+      session.getLSConnection().getLsClient().unsubscribe(subscription);
+    }
+  }
+
+  private void onMessageExpired(LSMessage<?> message) {
+    // Called by the queue while polling, possibly with locks held
+    expiredToAcknowledge.offer(message);
+    if (expiredAcknowledgeScheduled.compareAndSet(false, true)) {
+      LSScheduler.schedule(this::discardExpiredMessages, 0);
+    }
+  }
+
+  private void discardExpiredMessages() {
+    expiredAcknowledgeScheduled.set(false);
+
+    LSMessage<?> message = null;
+    while ((message = expiredToAcknowledge.poll()) != null) {
+      discardExpiredMessage(message);
+    }
+
+    onMessagesDequeued();
+  }
+
+  private void discardExpiredMessage(LSMessage<?> message) {
+    expiredMessages.incrementAndGet();
+
+    log.debug("Discarding expired message for destination " + destination.getName());
+
+    // Acknowledge the message as consumed, or it would be redelivered
+    if (session.getLSAcknowledgeMode() == AcknowledgeMode.INDIVIDUAL_ACKNOWLEDGE) {
+      try {
+        message.acknowledgeMessage();
+      } catch (Throwable t) {
+        log.error("Exception while acknowledging an expired message: " + t.getMessage(), t);
+      }
+    } else {
+      applyAcknowledgeMode(message);
+    }
+  }
+
+  private void onMessagesDequeued() {
+    // Resume this or other consumers if enough memory has been released
+    session.getLSConnection().resumePausedConsumers();
+  }
+
+  private boolean isQueueOverLimits() {
+    LSConnection connection = session.getLSConnection();
+
+    int maxMessages = connection.getMaxConsumerQueuedMessages();
+    long maxBytes = connection.getMaxConsumerQueuedBytes();
+
+    return ((maxMessages > 0) && (messageQueue.size() >= maxMessages))
+        || ((maxBytes > 0) && (messageQueue.bytes() >= maxBytes))
+        || connection.isQueueFull();
+  }
+
+  private boolean isQueueBelowLowWatermark() {
+    LSConnection connection = session.getLSConnection();
+
+    int maxMessages = connection.getMaxConsumerQueuedMessages();
+    long maxBytes = connection.getMaxConsumerQueuedBytes();
+
+    return ((maxMessages == 0) || (messageQueue.size() <= maxMessages / 2))
+        && ((maxBytes == 0) || (messageQueue.bytes() <= maxBytes / 2))
+        && connection.isQueueBelowLowWatermark();
+  }
+
+  private LSDuplicateFilter createDuplicateFilter() {
+    int window = session.getLSConnection().getDuplicateDetectionWindow();
+    if (window == 0) {
+      return null;
+    }
+
+    // With the other modes a redelivered message was never acknowledged, and must be delivered
+    switch (session.getLSAcknowledgeMode()) {
+      case DUPS_OK_ACKNOWLEDGE:
+      case PRE_ACKNOWLEDGE:
+        return new LSDuplicateFilter(window);
+
+      default:
+        return null;
+    }
+  }
+
+  private static String valueAt(ItemUpdate itemUpdate, int position) {
+    // Fields not requested have position 0
+    return (position > 0) ? itemUpdate.getValue(position) : null;
+  }
+
+  private static int estimateSize(String payload, String properties) {
+    // Raw strings take 2 bytes per char, plus a fixed overhead for the message object
+    int chars = 0;
+
+    if (payload != null) {
+      chars += payload.length();
+    }
+
+    if (properties != null) {
+      chars += properties.length();
+    }
+
+    return MESSAGE_OVERHEAD + 2 * chars;
+  }
+
+  private synchronized void consumeCredit() {
+    // A requested message has been received
+    if (credits > 0) {
+      credits--;
+    }
+  }
+
+  private void readNext() {
+    // Prepare read command
+    MessageDescriptor readDescriptor =
+        new MessageDescriptor(
+            session.getLSConnection().getJmsConnector(),
+            session.getLSConnection().getClientID(),
+            session.getLocalGuid(),
+            destination.getLSDestinationType(),
+            destination.getName(),
+            subscriptionName,
+            durable,
+            noLocal,
+            shared,
+            session.getLSAcknowledgeMode(),
+            MessageKind.READ_NEXT);
+
+    // Use session GUID as sequence identifier, to guarantee proper message serialization
+    String sequenceId = session.getLocalGuid().replace('-', '_');
+    String readMessage = JSON.stringify(readDescriptor);
+
+    session.getLSConnection().getLsClient().sendMessage(readMessage, sequenceId, -1, null, true);
+  }
+
+  void applyAcknowledgeMode(LSMessage<?> message) {
+    applyAcknowledgeMode(Collections.<LSMessage<?>>singletonList(message));
+  }
+
+  synchronized void applyAcknowledgeMode(List<LSMessage<?>> messages) {
+    switch (session.getLSAcknowledgeMode()) {
+      case PRE_ACKNOWLEDGE:
+        // Nothing to do, the messages have already been
+        // acknowledged on the adapter
+        break;
+
+      case AUTO_ACKNOWLEDGE:
+        // Ask to read the next messages, the messages
+        // will be acknowledged automatically by the adapter
+        fillPrefetchWindow();
+        break;
+
+      case CLIENT_ACKNOWLEDGE:
+        // Save messages for later acknowledge and read the next messages
+        session.addLSMessagesToBeAcknowledged(messages);
+        fillPrefetchWindow();
+        break;
+
+      case SESSION_TRANSACTED:
+        // Ask to read the next messages, the messages
+        // will be acknowledged upon commit
+        fillPrefetchWindow();
+        break;
+
+      case DUPS_OK_ACKNOWLEDGE:
+        // Save the messages for later acknnowledge and
+        // schedule their acknowledge at lazy time
+        session.addLSMessagesToBeAcknowledged(messages);
+        session.scheduleMessageAcknowledge(messages.size());
+        break;
+
+      case INDIVIDUAL_ACKNOWLEDGE:
+        // Save messages for later acknowledge
+        session.addLSMessagesToBeAcknowledged(messages);
+        break;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+/**
+ * The optional fields of a received message that a message consumer may request to the JMS
+ * Extender.
+ *
+ * <p>By default consumers request all the fields of each message. When a subset of fields is
+ * specified, with {@link LSSession#setConsumerFields(java.util.Set)} or {@link
+ * LSConnectionFactory#setConsumerFields(java.util.Set)}, the fields not included are not sent by
+ * the JMS Extender, and the corresponding headers and properties of received messages keep their
+ * default values. The message ID, the body and, for object messages, the class of the object are
+ * always requested.
+ */
+public enum LSMessageField {
+
+  /** The message properties. */
+  PROPERTIES("messageProperties"),
+
+  /** The {@code JMSReplyTo} header. */
+  REPLY_TO("replyDestinationType", "replyDestinationName"),
+
+  /** The {@code JMSType} header. */
+  TYPE("type"),
+
+  /** The {@code JMSCorrelationID} header. */
+  CORRELATION_ID("correlationId"),
+
+  /** The {@code JMSPriority} header. */
+  PRIORITY("priority"),
+
+  /** The {@code JMSExpiration} header. */
+  EXPIRATION("expiration"),
+
+  /** The {@code JMSDeliveryMode} header. */
+  DELIVERY_MODE("deliveryMode"),
+
+  /** The {@code JMSTimestamp} header. */
+  TIMESTAMP("timestamp"),
+
+  /** The {@code JMSDeliveryTime} header. */
+  DELIVERY_TIME("deliveryTime"),
+
+  /** The {@code JMSRedelivered} header. */
+  REDELIVERED("messageRedelivered");
+
+  private final String[] schemaFields;
+
+  private LSMessageField(String... schemaFields) {
+    this.schemaFields = schemaFields;
+  }
+
+  String[] getSchemaFields() {
+    return schemaFields;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+import javax.jms.JMSException;
+
+/**
+ * Exception notified to the {@link javax.jms.ExceptionListener} of a connection when messages
+ * directed to the connection have been lost, if message loss detection is enabled, see {@link
+ * LSConnectionFactory#setMessageLossDetection(boolean)}.
+ *
+ * <p>Messages may be lost either because the Lightstreamer Server dropped them due to internal
+ * resource limitations, or because a gap has been detected in the sequence of message IDs received
+ * by a consumer. In the latter case the messages may have been lost anywhere between the message
+ * producer and the JMS Extender.
+ */
+public class LSMessageLossException extends JMSException {
+
+  private static final long serialVersionUID = 1L;
+
+  /** The error code of the exception. */
+  public static final String ERROR_CODE = "MESSAGE_LOSS";
+
+  private final String destinationName;
+  private final long lostMessageCount;
+  private final boolean sequenceGap;
+  private final long connectionLostMessageCount;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  LSMessageLossException(
+      String reason,
+      String destinationName,
+      long lostMessageCount,
+      boolean sequenceGap,
+      long connectionLostMessageCount) {
+
+    super(reason, ERROR_CODE);
+
+    this.destinationName = destinationName;
+    this.lostMessageCount = lostMessageCount;
+    this.sequenceGap = sequenceGap;
+    this.connectionLostMessageCount = connectionLostMessageCount;
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Public operations
+
+  /**
+   * Returns the name of the destination of the consumer that lost the messages.
+   *
+   * @return the name of the destination, or {@code null} if the messages have been lost by an
+   *     internal subscription of the connection
+   */
+  public String getDestinationName() {
+    return destinationName;
+  }
+
+  /**
+   * Returns the number of messages lost in this occurrence.
+   *
+   * @return the number of lost messages
+   */
+  public long getLostMessageCount() {
+    return lostMessageCount;
+  }
+
+  /**
+   * Returns whether the loss has been detected from a gap in the sequence of message IDs, rather
+   * than being notified by the Lightstreamer Server.
+   *
+   * @return {@code true} if the loss has been detected from a gap in message IDs
+   */
+  public boolean isSequenceGap() {
+    return sequenceGap;
+  }
+
+  /**
+   * Returns the total number of messages lost by the connection so far, including those of this
+   * occurrence.
+   *
+   * @return the total number of lost messages of the connection
+   */
+  public long getConnectionLostMessageCount() {
+    return connectionLostMessageCount;
+  }
+}
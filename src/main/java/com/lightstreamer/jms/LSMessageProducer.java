@@ -21,7 +21,7 @@ import com.lightstreamer.jms.descriptors.MessageDescriptor;
 import com.lightstreamer.jms.utils.JSON;
 import com.lightstreamer.log.LogManager;
 import com.lightstreamer.log.Logger;
-import java.util.Base64;
+import java.io.Serializable;
 import javax.jms.CompletionListener;
 import javax.jms.Destination;
 import javax.jms.JMSException;
@@ -226,7 +226,9 @@ class LSMessageProducer implements MessageProducer {
       throw new IllegalStateException("Producer has been closed");
     }
 
+    // Destinations are interned by the session, so most checks end at the reference comparison
     if ((this.destination != null)
+        && (this.destination != destination)
         && ((!((LSDestination) this.destination)
                 .getName()
                 .equals(((LSDestination) destination).getName()))
@@ -260,7 +262,7 @@ class LSMessageProducer implements MessageProducer {
               timeToLive,
               message.getJMSType(),
               message.getJMSCorrelationID(),
-              ((LSMessage<?>) message).getProperties());
+              ((LSMessage<?>) message).getEncodedProperties());
 
       // Set the appropriate payload
       switch (((LSMessage<?>) message).getLSMessageKind()) {
@@ -269,26 +271,32 @@ class LSMessageProducer implements MessageProducer {
           break;
 
         case OBJECT_MESSAGE:
-          if (((LSObjectMessage) message).getObject() == null) {
+          Serializable object = ((LSObjectMessage) message).getObject();
+          if (object == null) {
             throw new IllegalArgumentException("Object message has a null object");
           }
 
-          messageDescriptor.setPayload(((LSObjectMessage) message).getObject());
-          messageDescriptor.setClassFqn(
-              ((LSObjectMessage) message).getObject().getClass().getName());
+          // Serialize the object with a writer cached by the connection for its class
+          LSClassCache classCache = session.getLSConnection().getClassCache();
+          Object rawObject =
+              JSON.stringifyAsRawValue(object, classCache.getWriter(object.getClass()));
+          if (rawObject == null) {
+            throw new JMSException(
+                "Could not serialize object of class " + object.getClass().getName());
+          }
+
+          messageDescriptor.setPayload(rawObject);
+          messageDescriptor.setClassFqn(object.getClass().getName());
           break;
 
         case MAP_MESSAGE:
-          messageDescriptor.setPayload(((LSMapMessage) message).getMap());
+          messageDescriptor.setPayload(((LSMapMessage) message).getEncodedMap());
           break;
 
         case BYTES_MESSAGE:
           ((LSBytesMessage) message).reset();
 
-          byte[] payload = ((LSBytesMessage) message).getBody();
-          String payload64 = Base64.getEncoder().encodeToString(payload);
-
-          messageDescriptor.setPayload(payload64);
+          messageDescriptor.setPayload(((LSBytesMessage) message).getEncodedBody());
           break;
 
         default:
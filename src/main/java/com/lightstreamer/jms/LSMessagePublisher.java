@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+import com.lightstreamer.log.LogManager;
+import com.lightstreamer.log.Logger;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+class LSMessagePublisher implements Publisher<Message> {
+
+  private static final Logger log = LogManager.getLogger("lightstreamer.jms.publisher");
+
+  private final LSMessageConsumerImpl consumer;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Message subscription implementation
+
+  class MessageSubscription implements Subscription {
+
+    private final Subscriber<? super Message> subscriber;
+
+    // Messages requested by the subscriber and not yet delivered
+    private final AtomicLong demand;
+
+    // Serializes signals to the subscriber, whichever thread drains
+    private final AtomicInteger drainers;
+
+    // Set once the subscriber has received its subscription
+    private volatile boolean active;
+    private volatile boolean cancelled;
+
+    // Error to be signaled by the draining thread, as signals must not overlap
+    private volatile Throwable pendingError;
+
+    /////////////////////////////////////////////////////////////////
+    // Initialization
+
+    MessageSubscription(Subscriber<? super Message> subscriber) {
+      this.subscriber = subscriber;
+      this.demand = new AtomicLong();
+      this.drainers = new AtomicInteger();
+    }
+
+    /////////////////////////////////////////////////////////////////
+    // Package private operations
+
+    long getDemand() {
+      return cancelled ? 0 : demand.get();
+    }
+
+    void activate() {
+      active = true;
+
+      // Messages may be already queued or the consumer may be closed
+      drain();
+    }
+
+    void drain() {
+      // No signal may precede the subscription
+      if (!active) {
+        return;
+      }
+
+      // Only one thread at a time delivers, others just signal there is more to do
+      if (drainers.getAndIncrement() != 0) {
+        return;
+      }
+
+      int missed = 1;
+      do {
+        Throwable error = pendingError;
+        if ((error != null) && !cancelled) {
+          cancel();
+          signalError(error);
+        }
+
+        while (!cancelled && (demand.get() > 0)) {
+          LSMessage<?> message = consumer.pollForPublisher();
+          if (message == null) {
+            break;
+          }
+
+          // Unbounded demand is never decremented
+          if (demand.get() != Long.MAX_VALUE) {
+            demand.decrementAndGet();
+          }
+
+          try {
+            subscriber.onNext(message);
+          } catch (Throwable t) {
+            log.error("Exception while forwarding a message to subscriber: " + t.getMessage(), t);
+
+            // A failing subscriber is considered cancelled
+            cancel();
+            break;
+          }
+
+          // Apply acknowledge mode once delivered, as with a message listener
+          consumer.applyAcknowledgeMode(message);
+        }
+
+        if (!cancelled) {
+          if (consumer.isDrainedAndClosed()) {
+            // No more messages will arrive
+            cancelled = true;
+            signalComplete();
+
+          } else {
+            // Turn the outstanding demand into read commands
+            consumer.requestMessages();
+          }
+        }
+
+        missed = drainers.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    /////////////////////////////////////////////////////////////////
+    // Internals
+
+    private void signalComplete() {
+      try {
+        subscriber.onComplete();
+      } catch (Throwable t) {
+        log.error("Exception while completing subscriber: " + t.getMessage(), t);
+      }
+    }
+
+    private void signalError(Throwable error) {
+      try {
+        subscriber.onError(error);
+      } catch (Throwable t) {
+        log.error("Exception while forwarding an error to subscriber: " + t.getMessage(), t);
+      }
+    }
+
+    /////////////////////////////////////////////////////////////////
+    // Subscription interface
+
+    @Override
+    public void request(long n) {
+      if (cancelled) {
+        return;
+      }
+
+      if (n <= 0) {
+        if (pendingError == null) {
+          pendingError = new IllegalArgumentException("Requested messages must be positive: " + n);
+        }
+
+        drain();
+        return;
+      }
+
+      // Add to demand, saturating at unbounded demand
+      long current;
+      long updated;
+      do {
+        current = demand.get();
+        updated = (current + n < 0) ? Long.MAX_VALUE : current + n;
+      } while (!demand.compareAndSet(current, updated));
+
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      if (cancelled) {
+        return;
+      }
+
+      cancelled = true;
+
+      // Cancelling closes the consumer, which unsubscribes from the destination
+      try {
+        consumer.close();
+      } catch (JMSException jmse) {
+        log.error("Exception while closing the consumer: " + jmse.getMessage(), jmse);
+      }
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  LSMessagePublisher(LSMessageConsumerImpl consumer) {
+    this.consumer = consumer;
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Publisher interface
+
+  @Override
+  public void subscribe(Subscriber<? super Message> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("Subscriber can't be null");
+    }
+
+    MessageSubscription subscription = new MessageSubscription(subscriber);
+
+    // Only one subscriber may be attached to the consumer, for its whole life
+    try {
+      consumer.attachPublisher(subscription);
+
+    } catch (JMSException | java.lang.IllegalStateException e) {
+      subscriber.onSubscribe(
+          new Subscription() {
+
+            @Override
+            public void request(long n) {
+              /* Nothing to do here */
+            }
+
+            @Override
+            public void cancel() {
+              /* Nothing to do here */
+            }
+          });
+
+      subscription.signalError(e);
+      return;
+    }
+
+    subscriber.onSubscribe(subscription);
+    subscription.activate();
+  }
+}
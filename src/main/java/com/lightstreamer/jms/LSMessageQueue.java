@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+class LSMessageQueue {
+
+  // Number of JMS priority levels, from 0 to 9
+  private static final int PRIORITY_LEVELS = 10;
+
+  // One queue per priority level, lowest first, or a single FIFO queue
+  private final ConcurrentLinkedQueue<LSMessage<?>>[] levels;
+  private final ConcurrentLinkedQueue<Thread> waiters;
+  private final AtomicInteger size;
+
+  // Estimated bytes held by this queue, and by all the queues of the connection
+  private final AtomicLong bytes;
+  private final AtomicLong sharedBytes;
+
+  // Receives the expired messages skipped by poll, null if they are not checked
+  private final Consumer<LSMessage<?>> expirationHandler;
+
+  private volatile boolean closed;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  LSMessageQueue(
+      AtomicLong sharedBytes, boolean priorityOrdering, Consumer<LSMessage<?>> expirationHandler) {
+    this.levels = new ConcurrentLinkedQueue[priorityOrdering ? PRIORITY_LEVELS : 1];
+    for (int i = 0; i < levels.length; i++) {
+      levels[i] = new ConcurrentLinkedQueue<LSMessage<?>>();
+    }
+
+    this.waiters = new ConcurrentLinkedQueue<Thread>();
+    this.size = new AtomicInteger();
+    this.bytes = new AtomicLong();
+    this.sharedBytes = sharedBytes;
+    this.expirationHandler = expirationHandler;
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  int size() {
+    return size.get();
+  }
+
+  long bytes() {
+    return bytes.get();
+  }
+
+  boolean hasWaiters() {
+    return !waiters.isEmpty();
+  }
+
+  void offer(LSMessage<?> message) {
+    levels[levelOf(message)].offer(message);
+    size.incrementAndGet();
+    bytes.addAndGet(message.getEstimatedSize());
+    sharedBytes.addAndGet(message.getEstimatedSize());
+
+    // Wake up one of the threads waiting for a message, if any
+    signalWaiter();
+  }
+
+  LSMessage<?> poll() {
+    if (expirationHandler == null) {
+      return pollNext();
+    }
+
+    // Skip expired messages, handing them over to the handler
+    long now = System.currentTimeMillis();
+    while (true) {
+      LSMessage<?> message = pollNext();
+      if ((message == null) || !message.isExpired(now)) {
+        return message;
+      }
+
+      expirationHandler.accept(message);
+    }
+  }
+
+  LSMessage<?> poll(long timeout) throws InterruptedException {
+    // Waits until a message is available, the timeout (if not 0) expires or the
+    // queue is closed, returning null in the latter cases
+    LSMessage<?> message = poll();
+    if (message != null) {
+      return message;
+    }
+
+    Thread current = Thread.currentThread();
+    long deadline = (timeout > 0) ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+
+    while (!closed) {
+      // Register as a waiter before checking again, so that a message offered
+      // in between cannot go unnoticed
+      waiters.offer(current);
+
+      message = poll();
+      if (message == null && !closed) {
+        if (timeout > 0) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            if (!waiters.remove(current)) {
+              // Already dequeued by a signal, which must not go lost
+              passOnSignal();
+            }
+
+            return null;
+          }
+
+          LockSupport.parkNanos(this, remaining);
+        } else {
+          LockSupport.park(this);
+        }
+
+        message = poll();
+      }
+
+      boolean signaled = !waiters.remove(current);
+
+      if (message != null) {
+        // The wake up meant for another waiter may have been spent on
+        // this thread, pass it on if more messages are available
+        passOnSignal();
+        return message;
+      }
+
+      if (Thread.interrupted()) {
+        if (signaled) {
+          // Already dequeued by a signal, which must not go lost
+          passOnSignal();
+        }
+
+        throw new InterruptedException();
+      }
+    }
+
+    return null;
+  }
+
+  int drainTo(Collection<? super LSMessage<?>> collection, int maxMessages) {
+    int count = 0;
+    while (count < maxMessages) {
+      LSMessage<?> message = poll();
+      if (message == null) {
+        break;
+      }
+
+      collection.add(message);
+      count++;
+    }
+
+    return count;
+  }
+
+  int clear() {
+    // Messages are dropped anyway, no need to check their expiration
+    int cleared = 0;
+    while (pollNext() != null) {
+      cleared++;
+    }
+
+    return cleared;
+  }
+
+  void close() {
+    closed = true;
+
+    // Wake up all the waiting threads
+    for (Thread waiter : waiters) {
+      LockSupport.unpark(waiter);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Internals
+
+  private LSMessage<?> pollNext() {
+    // Serve the highest priority level holding a message
+    for (int i = levels.length - 1; i >= 0; i--) {
+      LSMessage<?> message = levels[i].poll();
+      if (message != null) {
+        size.decrementAndGet();
+        bytes.addAndGet(-message.getEstimatedSize());
+        sharedBytes.addAndGet(-message.getEstimatedSize());
+        return message;
+      }
+    }
+
+    return null;
+  }
+
+  private int levelOf(LSMessage<?> message) {
+    if (levels.length == 1) {
+      return 0;
+    }
+
+    int priority = message.getLSPriority();
+    return Math.max(0, Math.min(PRIORITY_LEVELS - 1, priority));
+  }
+
+  private boolean hasMessages() {
+    for (ConcurrentLinkedQueue<LSMessage<?>> level : levels) {
+      if (!level.isEmpty()) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private void passOnSignal() {
+    if (hasMessages()) {
+      signalWaiter();
+    }
+  }
+
+  private void signalWaiter() {
+    Thread waiter = waiters.poll();
+    if (waiter != null) {
+      LockSupport.unpark(waiter);
+    }
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+import com.lightstreamer.client.ItemUpdate;
+import com.lightstreamer.client.Subscription;
+import com.lightstreamer.client.SubscriptionListener;
+import com.lightstreamer.log.LogManager;
+import com.lightstreamer.log.Logger;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+class LSMultiplexedSubscription implements SubscriptionListener {
+
+  private static final Logger log = LogManager.getLogger("lightstreamer.jms.consumer");
+
+  private final LSConnection connection;
+  private final String key;
+  private final Subscription subscription;
+  private final String destinationName;
+
+  // Position of the message ID, the same for all the members
+  private final int messageIdPosition;
+
+  // Message ID gaps are detected once for all the members, null if not eligible,
+  // accessed only on the Lightstreamer event thread
+  private final LSGapDetector gapDetector;
+
+  // Iterated without locking on the Lightstreamer event thread
+  private final List<LSMessageConsumerImpl> members;
+  private final Set<LSMessageConsumerImpl> startedMembers;
+
+  // Members paused for exceeding their queue limits
+  private final Set<LSMessageConsumerImpl> pausedMembers;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  LSMultiplexedSubscription(LSConnection connection, String key, LSMessageConsumerImpl first) {
+    // The first member provides the subscription and the settings common to all the members
+    this.connection = connection;
+    this.key = key;
+    this.subscription = first.createSubscription();
+    this.destinationName = first.getLSDestination().getName();
+
+    this.messageIdPosition = first.getSchema().messageId;
+    this.gapDetector = first.isGapDetection() ? new LSGapDetector() : null;
+
+    this.members = new CopyOnWriteArrayList<LSMessageConsumerImpl>();
+    this.startedMembers = ConcurrentHashMap.newKeySet();
+    this.pausedMembers = ConcurrentHashMap.newKeySet();
+
+    subscription.addListener(this);
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  String getKey() {
+    return key;
+  }
+
+  synchronized void addMember(LSMessageConsumerImpl consumer) {
+    members.add(consumer);
+  }
+
+  synchronized boolean removeMember(LSMessageConsumerImpl consumer) {
+    members.remove(consumer);
+    startedMembers.remove(consumer);
+    pausedMembers.remove(consumer);
+
+    updateSubscription();
+
+    return members.isEmpty();
+  }
+
+  synchronized void start(LSMessageConsumerImpl consumer) {
+    startedMembers.add(consumer);
+    updateSubscription();
+  }
+
+  synchronized void stop(LSMessageConsumerImpl consumer) {
+    startedMembers.remove(consumer);
+    updateSubscription();
+  }
+
+  synchronized void pause(LSMessageConsumerImpl consumer) {
+    pausedMembers.add(consumer);
+    updateSubscription();
+  }
+
+  synchronized void resume(LSMessageConsumerImpl consumer) {
+    pausedMembers.remove(consumer);
+    updateSubscription();
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Internals
+
+  private void onMessagesLost(long count, boolean sequenceGap) {
+    // Each started member lost its own copy of the messages
+    for (LSMessageConsumerImpl member : members) {
+      if (startedMembers.contains(member)) {
+        member.countLostMessages(count, sequenceGap);
+      }
+    }
+
+    // The loss is notified just once for the shared subscription
+    connection.onMessagesLost(destinationName, count, sequenceGap);
+  }
+
+  private void updateSubscription() {
+    // Subscribed while any member is started, the slowest
+    // member pauses the whole group to keep within its limits
+    boolean needed = !startedMembers.isEmpty() && pausedMembers.isEmpty();
+
+    if (needed && !subscription.isActive()) {
+      connection.getLsClient().subscribe(subscription);
+
+    } else if (!needed && subscription.isActive()) {
+      connection.getLsClient().unsubscribe(subscription);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // SubscriptionListener interface
+
+  @Override
+  public void onClearSnapshot(String itemName, int itemPos) {
+    /* Nothing to do here */
+  }
+
+  @Override
+  public void onCommandSecondLevelItemLostUpdates(int lostUpdates, String key) {
+    /* Nothing to do here */
+  }
+
+  @Override
+  public void onCommandSecondLevelSubscriptionError(int code, String message, String key) {
+    /* Nothing to do here */
+  }
+
+  @Override
+  public void onEndOfSnapshot(String itemName, int itemPos) {
+    /* Nothing to do here */
+  }
+
+  @Override
+  public void onItemLostUpdates(String itemName, int itemPos, int lostUpdates) {
+    log.warn("Server dropped " + lostUpdates + " message(s) for destination " + destinationName);
+
+    onMessagesLost(lostUpdates, false);
+  }
+
+  @Override
+  public void onItemUpdate(ItemUpdate itemUpdate) {
+    if (gapDetector != null) {
+      String messageId = (messageIdPosition > 0) ? itemUpdate.getValue(messageIdPosition) : null;
+
+      long gap = gapDetector.detectGap(messageId);
+      if (gap > 0) {
+        log.warn(
+            "Gap of "
+                + gap
+                + " message(s) detected before message "
+                + messageId
+                + " for destination "
+                + destinationName);
+
+        onMessagesLost(gap, true);
+      }
+    }
+
+    // Each started member builds its own message, as acknowledgement
+    // and client-side state belong to the consumer
+    for (LSMessageConsumerImpl member : members) {
+      if (startedMembers.contains(member)) {
+        member.onItemUpdate(itemUpdate);
+      }
+    }
+  }
+
+  @Override
+  public void onListenEnd(Subscription subscription) {
+    /* Nothing to do here */
+  }
+
+  @Override
+  public void onListenStart(Subscription subscription) {
+    /* Nothing to do here */
+  }
+
+  @Override
+  public void onRealMaxFrequency(String frequency) {
+    /* Nothing to do here */
+  }
+
+  @Override
+  public void onSubscription() {
+    /* Nothing to do here */
+  }
+
+  @Override
+  public void onSubscriptionError(int code, String message) {
+    /* Nothing to do here */
+  }
+
+  @Override
+  public void onUnsubscription() {
+    /* Nothing to do here */
+  }
+}
@@ -16,12 +16,20 @@
 package com.lightstreamer.jms;
 
 import com.lightstreamer.jms.descriptors.MessageKind;
+import com.lightstreamer.jms.utils.JSON;
+import com.lightstreamer.log.LogManager;
+import com.lightstreamer.log.Logger;
 import java.io.Serializable;
 import javax.jms.JMSException;
+import javax.jms.MessageFormatException;
 import javax.jms.ObjectMessage;
 
 class LSObjectMessage extends LSMessage<Serializable> implements ObjectMessage {
 
+  private static final Logger log = LogManager.getLogger("lightstreamer.jms.message.object");
+
+  private String classFqn;
+
   /////////////////////////////////////////////////////////////////////////
   // Initialization
 
@@ -29,16 +37,53 @@ class LSObjectMessage extends LSMessage<Serializable> implements ObjectMessage {
     super(session, MessageKind.OBJECT_MESSAGE);
   }
 
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  synchronized void setEncodedObject(String classFqn, String payload) {
+    this.classFqn = classFqn;
+    setRawBody(payload);
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Overrides from LSMessage
+
+  @Override
+  protected void decodeBody(String rawBody) throws JMSException {
+    Serializable object = null;
+    try {
+      // Class resolution and JSON readers are cached by the connection
+      LSClassCache classCache = getLSSession().getLSConnection().getClassCache();
+      Class<?> clazz = classCache.resolveClass(classFqn);
+      object = (Serializable) JSON.parse(rawBody, classCache.getReader(clazz));
+    } catch (Exception e) {
+      log.error(
+          "Exception while decoding an object message for class "
+              + classFqn
+              + ": "
+              + e.getMessage(),
+          e);
+    }
+
+    if (object == null) {
+      throw new MessageFormatException("Cannot decode object of class " + classFqn);
+    }
+
+    body = object;
+  }
+
   /////////////////////////////////////////////////////////////////////////
   // ObjectMessage interface
 
   @Override
   public synchronized void setObject(Serializable object) throws JMSException {
+    discardRawBody();
     body = object;
   }
 
   @Override
   public synchronized Serializable getObject() throws JMSException {
+    ensureBody();
     return body;
   }
 }
@@ -124,6 +124,7 @@ public class LSQueueConnectionFactory extends LSConnectionFactory
 
     // Create the JMS connection that wraps the client
     LSQueueConnection connection = new LSQueueConnection(lsClient, getJmsConnector(), true);
+    configure(connection);
     return connection;
   }
 
@@ -181,6 +182,7 @@ public class LSQueueConnectionFactory extends LSConnectionFactory
 
     // Create the JMS connection that wraps the client
     LSQueueConnection connection = new LSQueueConnection(lsClient, getJmsConnector(), true);
+    configure(connection);
     return connection;
   }
 }
@@ -15,16 +15,18 @@
  */
 package com.lightstreamer.jms;
 
+import javax.jms.InvalidSelectorException;
 import javax.jms.JMSException;
 import javax.jms.Queue;
 import javax.jms.QueueReceiver;
 
-class LSQueueReceiver extends LSMessageConsumer implements QueueReceiver {
+class LSQueueReceiver extends LSMessageConsumerImpl implements QueueReceiver {
 
   /////////////////////////////////////////////////////////////////////////
   // Initialization
 
-  LSQueueReceiver(LSSessionImpl session, LSQueue destination, String selector) {
+  LSQueueReceiver(LSSessionImpl session, LSQueue destination, String selector)
+      throws InvalidSelectorException {
     super(session, destination, null, false, false, false, selector);
   }
 
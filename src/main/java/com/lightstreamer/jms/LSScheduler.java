@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+import com.lightstreamer.log.LogManager;
+import com.lightstreamer.log.Logger;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+class LSScheduler {
+
+  private static final Logger log = LogManager.getLogger("lightstreamer.jms.scheduler");
+
+  // Single daemon thread shared by the whole library, created on first use
+  private static ScheduledThreadPoolExecutor executor;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+    return getExecutor()
+        .schedule(
+            () -> {
+              try {
+                task.run();
+              } catch (Throwable t) {
+                // Keep the shared thread alive for other tasks
+                log.error("Exception while running a scheduled task: " + t.getMessage(), t);
+              }
+            },
+            delayMillis,
+            TimeUnit.MILLISECONDS);
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Internals
+
+  private static synchronized ScheduledThreadPoolExecutor getExecutor() {
+    if (executor == null) {
+      executor =
+          new ScheduledThreadPoolExecutor(
+              1,
+              task -> {
+                Thread thread = new Thread(task, "LS JMS Client Scheduler");
+                thread.setDaemon(true);
+                return thread;
+              });
+
+      // Cancelled timeouts are the common case, don't let them pile up
+      executor.setRemoveOnCancelPolicy(true);
+    }
+
+    return executor;
+  }
+}
@@ -15,9 +15,18 @@
  */
 package com.lightstreamer.jms;
 
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import javax.jms.JMSException;
+import javax.jms.TemporaryQueue;
+import javax.jms.TemporaryTopic;
+
 /**
  * An extension of the {@link javax.jms.Session} interface to add the JMS Extender-specific
- * acknowledge modes constants.
+ * acknowledge modes constants, along with the settings of the message consumers of the session
+ * (prefetch window, requested message fields and priority ordering), the acknowledge policy of
+ * {@link javax.jms.Session#DUPS_OK_ACKNOWLEDGE} sessions and the asynchronous creation of temporary
+ * destinations.
  */
 public interface LSSession extends javax.jms.Session {
 
@@ -40,4 +49,147 @@ public interface LSSession extends javax.jms.Session {
    * unacknowledged.
    */
   static final int INDIVIDUAL_ACKNOWLEDGE = javax.jms.Session.DUPS_OK_ACKNOWLEDGE + 1;
+
+  /**
+   * Sets the prefetch window of the message consumers of this session, i.e. the maximum number of
+   * messages each consumer may request to the JMS Extender in advance of their consumption.
+   *
+   * <p>The prefetch window applies to the {@link #AUTO_ACKNOWLEDGE} acknowledge mode, where
+   * messages are delivered on demand. With a window of 1 (the default), the next message is
+   * requested only after the previous one has been consumed, so that throughput is bound to one
+   * message per network round-trip. A larger window keeps more requests outstanding, at the cost of
+   * more messages being held on the client before their consumption.
+   *
+   * <p>Note that prefetched messages are acknowledged by the JMS Extender as soon as they are
+   * delivered to the client: with a window of N, up to N-1 messages may be lost when the consumer
+   * is closed before consuming them. The number of discarded messages is logged when the consumer
+   * is closed.
+   *
+   * <p>With the {@link #CLIENT_ACKNOWLEDGE} and {@link #SESSION_TRANSACTED} acknowledge modes the
+   * window is always 1, as prefetched messages would not be redelivered after a recover, a rollback
+   * or the closing of the consumer.
+   *
+   * <p>The new value is applied by each consumer the next time it requests messages.
+   *
+   * @param prefetch the prefetch window, must be greater than zero
+   * @throws IllegalArgumentException if the specified value is not greater than zero
+   */
+  void setPrefetch(int prefetch);
+
+  /**
+   * Returns the prefetch window of the message consumers of this session.
+   *
+   * @return the prefetch window
+   * @see #setPrefetch(int)
+   */
+  int getPrefetch();
+
+  /**
+   * Sets the message fields requested to the JMS Extender by the message consumers of this session.
+   *
+   * <p>By default (or if {@code null} is specified) consumers request all the fields of each
+   * message. When a set of fields is specified, consumers request only those fields along with the
+   * message ID and body, reducing the amount of data sent for each message. The headers and
+   * properties corresponding to fields not requested keep their default values on received
+   * messages. For instance, an empty set is enough for consumers reading just the body of text
+   * messages.
+   *
+   * <p>The initial value is taken from the connection factory, see {@link
+   * LSConnectionFactory#setConsumerFields(Set)}. The new value applies to consumers created
+   * afterwards.
+   *
+   * @param fields the set of message fields to be requested, or {@code null} for all of them
+   */
+  void setConsumerFields(Set<LSMessageField> fields);
+
+  /**
+   * Returns the message fields requested to the JMS Extender by the message consumers of this
+   * session.
+   *
+   * @return an unmodifiable set of the message fields to be requested, or {@code null} if all of
+   *     them are requested
+   * @see #setConsumerFields(Set)
+   */
+  Set<LSMessageField> getConsumerFields();
+
+  /**
+   * Sets whether the message consumers of this session deliver the messages they hold in order of
+   * priority.
+   *
+   * <p>By default messages are delivered in order of arrival. When priority ordering is enabled,
+   * the {@code receive} operations and message listeners are always served the highest priority
+   * message available on the client, and messages of the same priority in order of arrival. Only
+   * the messages already received are reordered: a consumer holds more than one message only when a
+   * prefetch window larger than 1 is set (see {@link #setPrefetch(int)}), with the acknowledge
+   * modes where messages are pushed by the JMS Extender, or while its consumption lags behind.
+   *
+   * <p>Priorities are available only if requested by the consumer, see {@link
+   * #setConsumerFields(Set)}, otherwise all messages have the default priority. The new value
+   * applies to consumers created afterwards.
+   *
+   * @param priorityOrdering {@code true} to deliver messages in order of priority
+   */
+  void setPriorityOrdering(boolean priorityOrdering);
+
+  /**
+   * Returns whether the message consumers of this session deliver the messages they hold in order
+   * of priority.
+   *
+   * @return {@code true} if messages are delivered in order of priority
+   * @see #setPriorityOrdering(boolean)
+   */
+  boolean isPriorityOrdering();
+
+  /**
+   * Sets the policy by which this session coalesces the acknowledgements of consumed messages, in
+   * {@link #DUPS_OK_ACKNOWLEDGE} mode.
+   *
+   * <p>Consumed messages are acknowledged lazily, when either the maximum delay or the maximum
+   * number of pending messages of the policy is reached, and, with an adaptive policy, as soon as
+   * the observed consumption rate is too low for further messages to be coalesced. See {@link
+   * LSAcknowledgePolicy} for details. The policy has no effect in the other acknowledge modes.
+   *
+   * <p>The initial value is taken from the connection factory, see {@link
+   * LSConnectionFactory#setAcknowledgePolicy(LSAcknowledgePolicy)}. The new value applies from the
+   * next message consumed.
+   *
+   * @param acknowledgePolicy the acknowledge policy, or {@code null} for the default one
+   */
+  void setAcknowledgePolicy(LSAcknowledgePolicy acknowledgePolicy);
+
+  /**
+   * Returns the policy by which this session coalesces the acknowledgements of consumed messages.
+   *
+   * @return the acknowledge policy
+   * @see #setAcknowledgePolicy(LSAcknowledgePolicy)
+   */
+  LSAcknowledgePolicy getAcknowledgePolicy();
+
+  /**
+   * Creates a {@code TemporaryQueue} object without blocking the calling thread.
+   *
+   * <p>The returned future completes when the JMS Extender confirms the creation, or exceptionally
+   * with a {@code JMSException} if the creation fails or times out, see {@link
+   * LSConnectionFactory#setTemporaryDestinationTimeout(long)}. Any number of creations may be in
+   * flight at the same time, and other operations of the session are not blocked meanwhile. The
+   * future is completed by the thread receiving the outcome from the JMS Extender, hence dependent
+   * actions not specified as asynchronous should not block.
+   *
+   * <p>Cancelling the future withdraws the wait for the outcome, though the temporary queue may
+   * still be created by the JMS Extender.
+   *
+   * @return a future of the temporary queue
+   * @throws JMSException if the session fails to request the creation due to some internal error
+   */
+  CompletableFuture<TemporaryQueue> createTemporaryQueueAsync() throws JMSException;
+
+  /**
+   * Creates a {@code TemporaryTopic} object without blocking the calling thread.
+   *
+   * <p>The returned future completes as described for {@link #createTemporaryQueueAsync()}.
+   *
+   * @return a future of the temporary topic
+   * @throws JMSException if the session fails to request the creation due to some internal error
+   */
+  CompletableFuture<TemporaryTopic> createTemporaryTopicAsync() throws JMSException;
 }
@@ -24,11 +24,18 @@ import com.lightstreamer.jms.utils.JSON;
 import com.lightstreamer.log.LogManager;
 import com.lightstreamer.log.Logger;
 import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import javax.jms.BytesMessage;
 import javax.jms.Destination;
 import javax.jms.JMSException;
@@ -57,25 +64,34 @@ class LSSessionImpl implements LSSession {
 
   private final String localGuid;
 
-  private final Timer acknowledgeTimer;
-  private boolean acknowledgeTimerScheduled;
-  private final List<LSMessage<?>> messagesToBeAcknowledged;
+  // Deferred acknowledgement, scheduled on the shared scheduler, null if none is pending
+  private ScheduledFuture<?> acknowledgeTask;
+  // Last message consumed through each subscription, acknowledging cumulatively all the previous
+  // ones of the same subscription, for the CLIENT and DUPS_OK acknowledge modes
+  private final Map<Object, LSMessage<?>> acknowledgeWatermarks;
+  // Insertion-ordered, so that individual acknowledgements remove their message in constant time,
+  // for the INDIVIDUAL acknowledge mode
+  private final Set<LSMessage<?>> messagesToBeAcknowledged;
+  private int pendingAcknowledgeCount;
+
+  // Moving average of the interval between consumed messages, for adaptive acknowledge policies
+  private long lastConsumeNanos;
+  private long averageConsumeIntervalNanos;
 
   private boolean open;
-  private boolean running;
 
-  private final List<LSMessageProducer> producers;
-  private final List<LSMessageConsumer> consumers;
+  // Read without locking, as consumers check it while holding their own lock
+  private volatile boolean running;
 
-  private LSTemporaryQueue tempQueue;
-  private String tempQueueExceptionType;
-  private String tempQueueExceptionReason;
-  private String tempQueueExceptionErrorCode;
+  private volatile int prefetch;
+  private volatile Set<LSMessageField> consumerFields;
+  private volatile boolean priorityOrdering;
+  private volatile LSAcknowledgePolicy acknowledgePolicy;
 
-  private LSTemporaryTopic tempTopic;
-  private String tempTopicExceptionType;
-  private String tempTopicExceptionReason;
-  private String tempTopicExceptionErrorCode;
+  private final List<LSMessageProducer> producers;
+  private final List<LSMessageConsumerImpl> consumers;
+
+  private final LSDestinationCache destinations;
 
   /////////////////////////////////////////////////////////////////////////
   // Initialization
@@ -90,14 +106,20 @@ class LSSessionImpl implements LSSession {
 
     this.localGuid = UUID.randomUUID().toString();
 
-    this.acknowledgeTimer = new Timer("LS JMS Client Ack Timer", true);
-    this.messagesToBeAcknowledged = new LinkedList<LSMessage<?>>();
+    this.acknowledgeWatermarks = new LinkedHashMap<Object, LSMessage<?>>();
+    this.messagesToBeAcknowledged = new LinkedHashSet<LSMessage<?>>();
 
     this.open = true;
     this.running = false;
 
+    this.prefetch = 1;
+    this.consumerFields = connection.getConsumerFields();
+    this.acknowledgePolicy = connection.getAcknowledgePolicy();
+
     this.producers = new LinkedList<LSMessageProducer>();
-    this.consumers = new LinkedList<LSMessageConsumer>();
+    this.consumers = new LinkedList<LSMessageConsumerImpl>();
+
+    this.destinations = new LSDestinationCache(this);
   }
 
   /////////////////////////////////////////////////////////////////////////
@@ -115,11 +137,15 @@ class LSSessionImpl implements LSSession {
     return localGuid;
   }
 
+  LSDestinationCache getDestinationCache() {
+    return destinations;
+  }
+
   synchronized boolean isOpen() {
     return open;
   }
 
-  synchronized boolean isRunning() {
+  boolean isRunning() {
     return running;
   }
 
@@ -127,49 +153,90 @@ class LSSessionImpl implements LSSession {
     producers.remove(producer);
   }
 
-  synchronized void removeLSSMessageConsumer(LSMessageConsumer consumer) {
+  synchronized void removeLSSMessageConsumer(LSMessageConsumerImpl consumer) {
     consumers.remove(consumer);
   }
 
-  synchronized void addLSMessageToBeAcknowledged(LSMessage<?> message) {
-    messagesToBeAcknowledged.add(message);
+  synchronized void addLSMessagesToBeAcknowledged(List<LSMessage<?>> messages) {
+    if (acknowledgeMode == AcknowledgeMode.INDIVIDUAL_ACKNOWLEDGE) {
+      messagesToBeAcknowledged.addAll(messages);
+    } else {
+      // Just advance the watermark of each subscription
+      for (LSMessage<?> message : messages) {
+        acknowledgeWatermarks.put(message.getLSMessageConsumer().getAcknowledgeKey(), message);
+      }
+    }
+
+    pendingAcknowledgeCount += messages.size();
   }
 
   synchronized void removeLSMessageToBeAcknowledged(LSMessage<?> message) {
-    messagesToBeAcknowledged.remove(message);
+    if (messagesToBeAcknowledged.remove(message)) {
+      pendingAcknowledgeCount--;
+    }
   }
 
-  synchronized void scheduleMessageAcknowledge() {
-    // Sets the timer just once
-    if (!acknowledgeTimerScheduled) {
-      acknowledgeTimer.schedule(
-          new TimerTask() {
+  synchronized void scheduleMessageAcknowledge(int messageCount) {
+    LSAcknowledgePolicy policy = acknowledgePolicy;
 
-            @Override
-            public void run() {
-              synchronized (LSSessionImpl.this) {
-                // Clear the timer flag
-                acknowledgeTimerScheduled = false;
+    long delay = policy.getMaxDelay();
+    if (policy.isAdaptive()) {
+      long now = System.nanoTime();
+      if (lastConsumeNanos != 0 && messageCount > 0) {
+        long interval = (now - lastConsumeNanos) / messageCount;
+        averageConsumeIntervalNanos =
+            averageConsumeIntervalNanos == 0
+                ? interval
+                : (averageConsumeIntervalNanos * 7 + interval) / 8;
+      }
+      lastConsumeNanos = now;
 
-                acknowledgeMessages();
-              }
-            }
-          },
-          150);
+      // Waiting is pointless if the next message is not expected within the delay
+      if (averageConsumeIntervalNanos >= TimeUnit.MILLISECONDS.toNanos(delay)) {
+        delay = 0;
+      }
+    }
 
-      acknowledgeTimerScheduled = true;
+    int maxMessages = policy.getMaxMessages();
+    if (maxMessages > 0 && pendingAcknowledgeCount >= maxMessages) {
+      delay = 0;
+    }
+
+    if (delay == 0) {
+      // Acknowledge right away, superseding the pending task, if any
+      if (acknowledgeTask != null) {
+        acknowledgeTask.cancel(false);
+        acknowledgeTask = null;
+      }
+
+      acknowledgeMessages();
+      return;
+    }
+
+    // Schedules the acknowledgement just once
+    if (acknowledgeTask == null) {
+      acknowledgeTask =
+          LSScheduler.schedule(
+              () -> {
+                synchronized (LSSessionImpl.this) {
+                  // Clear the pending task
+                  acknowledgeTask = null;
+
+                  acknowledgeMessages();
+                }
+              },
+              delay);
     }
   }
 
   synchronized void acknowledgeMessages() {
-    if (messagesToBeAcknowledged.size() > 0) {
+    if (pendingAcknowledgeCount > 0) {
       List<LSMessage<?>> allMessagesToBeAcknowledged = new LinkedList<>();
       switch (acknowledgeMode) {
         case DUPS_OK_ACKNOWLEDGE:
         case CLIENT_ACKNOWLEDGE:
-          // Acknowledge just the last message
-          LSMessage<?> message = messagesToBeAcknowledged.get(messagesToBeAcknowledged.size() - 1);
-          allMessagesToBeAcknowledged.add(message);
+          // Acknowledge just the last message of each subscription
+          allMessagesToBeAcknowledged.addAll(acknowledgeWatermarks.values());
           break;
 
         case INDIVIDUAL_ACKNOWLEDGE:
@@ -182,8 +249,10 @@ class LSSessionImpl implements LSSession {
           break;
       }
 
-      // Clear the pending message list
+      // Clear the pending messages
+      acknowledgeWatermarks.clear();
       messagesToBeAcknowledged.clear();
+      pendingAcknowledgeCount = 0;
 
       // Acknowledge selected messages
       for (LSMessage<?> message : allMessagesToBeAcknowledged) {
@@ -204,7 +273,7 @@ class LSSessionImpl implements LSSession {
     running = true;
 
     // Start all the consumers (producers are not restartable)
-    for (LSMessageConsumer consumer : consumers) {
+    for (LSMessageConsumerImpl consumer : consumers) {
       consumer.start();
     }
   }
@@ -217,11 +286,75 @@ class LSSessionImpl implements LSSession {
     running = false;
 
     // Stop all the consumers (producers are not restartable)
-    for (LSMessageConsumer consumer : consumers) {
+    for (LSMessageConsumerImpl consumer : consumers) {
       consumer.stop();
     }
   }
 
+  /////////////////////////////////////////////////////////////////////////
+  // LSSession interface
+
+  @Override
+  public void setPrefetch(int prefetch) {
+    if (prefetch < 1) {
+      throw new IllegalArgumentException("Prefetch must be greater than zero: " + prefetch);
+    }
+
+    this.prefetch = prefetch;
+  }
+
+  @Override
+  public int getPrefetch() {
+    return prefetch;
+  }
+
+  @Override
+  public void setConsumerFields(Set<LSMessageField> fields) {
+    this.consumerFields = LSConsumerSchema.copyFields(fields);
+  }
+
+  @Override
+  public Set<LSMessageField> getConsumerFields() {
+    return consumerFields;
+  }
+
+  @Override
+  public void setPriorityOrdering(boolean priorityOrdering) {
+    this.priorityOrdering = priorityOrdering;
+  }
+
+  @Override
+  public boolean isPriorityOrdering() {
+    return priorityOrdering;
+  }
+
+  @Override
+  public void setAcknowledgePolicy(LSAcknowledgePolicy acknowledgePolicy) {
+    this.acknowledgePolicy =
+        acknowledgePolicy != null ? acknowledgePolicy : LSAcknowledgePolicy.DEFAULT;
+  }
+
+  @Override
+  public LSAcknowledgePolicy getAcknowledgePolicy() {
+    return acknowledgePolicy;
+  }
+
+  @Override
+  public CompletableFuture<TemporaryQueue> createTemporaryQueueAsync() throws JMSException {
+    return createTemporaryDestination(
+        MessageKind.CREATE_TEMP_QUEUE,
+        "temporary queue",
+        outcome -> new LSTemporaryQueue(this, outcome));
+  }
+
+  @Override
+  public CompletableFuture<TemporaryTopic> createTemporaryTopicAsync() throws JMSException {
+    return createTemporaryDestination(
+        MessageKind.CREATE_TEMP_TOPIC,
+        "temporary topic",
+        outcome -> new LSTemporaryTopic(this, outcome));
+  }
+
   /////////////////////////////////////////////////////////////////////////
   // Session interface
 
@@ -352,7 +485,7 @@ class LSSessionImpl implements LSSession {
     }
 
     // Clear local consumer queues
-    for (LSMessageConsumer consumer : consumers) {
+    for (LSMessageConsumerImpl consumer : consumers) {
       consumer.clearQueuedMessages();
     }
 
@@ -384,6 +517,14 @@ class LSSessionImpl implements LSSession {
     open = false;
     running = false;
 
+    // Send the deferred acknowledgement now, rather than after closing
+    if (acknowledgeTask != null) {
+      acknowledgeTask.cancel(false);
+      acknowledgeTask = null;
+
+      acknowledgeMessages();
+    }
+
     // Close all the producers
     for (LSMessageProducer producer : producers) {
       producer.close();
@@ -393,8 +534,8 @@ class LSSessionImpl implements LSSession {
 
     // Close all the consumers, working on a copy of the list (consumers will auto-remove from the
     // original list)
-    List<LSMessageConsumer> allConsumers = new LinkedList<LSMessageConsumer>(consumers);
-    for (LSMessageConsumer consumer : allConsumers) {
+    List<LSMessageConsumerImpl> allConsumers = new LinkedList<LSMessageConsumerImpl>(consumers);
+    for (LSMessageConsumerImpl consumer : allConsumers) {
       consumer.close();
     }
 
@@ -411,7 +552,7 @@ class LSSessionImpl implements LSSession {
     }
 
     // Clear local consumer queues
-    for (LSMessageConsumer consumer : consumers) {
+    for (LSMessageConsumerImpl consumer : consumers) {
       consumer.clearQueuedMessages();
     }
 
@@ -493,7 +634,7 @@ class LSSessionImpl implements LSSession {
   public synchronized MessageConsumer createConsumer(
       Destination destination, String messageSelector, boolean noLocal) throws JMSException {
 
-    LSMessageConsumer consumer = null;
+    LSMessageConsumerImpl consumer = null;
     switch (((LSDestination) destination).getLSDestinationType()) {
       case QUEUE:
         consumer = new LSQueueReceiver(this, (LSQueue) destination, messageSelector);
@@ -545,12 +686,13 @@ class LSSessionImpl implements LSSession {
 
   @Override
   public Queue createQueue(String queueName) throws JMSException {
-    return new LSQueue(this, queueName);
+    // Interned, so that repeated lookups share the same instance
+    return destinations.getQueue(queueName);
   }
 
   @Override
   public Topic createTopic(String topicName) throws JMSException {
-    return new LSTopic(this, topicName);
+    return destinations.getTopic(topicName);
   }
 
   @Override
@@ -619,179 +761,143 @@ class LSSessionImpl implements LSSession {
   }
 
   @Override
-  public synchronized TemporaryQueue createTemporaryQueue() throws JMSException {
-    tempQueue = null;
-    tempQueueExceptionReason = null;
-    tempQueueExceptionErrorCode = null;
-
-    // Compute operation ID
-    String operationId = UUID.randomUUID().toString();
-
-    // Store operation outcome callback
-    connection.addOutcomeCallback(
-        operationId,
-        new OutcomeCallback() {
-          public void callback(String outcome) {
-            synchronized (LSSessionImpl.this) {
-              tempQueue = new LSTemporaryQueue(LSSessionImpl.this, outcome);
-
-              // Signal the thread waiting for the callback
-              LSSessionImpl.this.notify();
-            }
-          }
-
-          public void onException(
-              String exceptionType, String exceptionReason, String exceptionErrorCode) {
-            synchronized (LSSessionImpl.this) {
-              tempQueueExceptionType = exceptionType;
-              tempQueueExceptionReason = exceptionReason;
-              tempQueueExceptionErrorCode = exceptionErrorCode;
+  public TemporaryQueue createTemporaryQueue() throws JMSException {
+    return awaitTemporaryDestination(createTemporaryQueueAsync(), "temporary queue");
+  }
 
-              // Signal the thread waiting for the callback
-              LSSessionImpl.this.notify();
-            }
-          }
-        });
+  @Override
+  public TemporaryTopic createTemporaryTopic() throws JMSException {
+    return awaitTemporaryDestination(createTemporaryTopicAsync(), "temporary topic");
+  }
 
-    MessageDescriptor tempQueueCreateDescriptor =
+  @Override
+  public synchronized void unsubscribe(String name) throws JMSException {
+    MessageDescriptor unsubscribeDescriptor =
         new MessageDescriptor(
             connection.getJmsConnector(),
             connection.getClientID(),
             localGuid,
-            DestinationType.QUEUE,
+            DestinationType.TOPIC,
             null,
-
-            // Specify ack mode, in case this is the first message for the session
-            acknowledgeMode,
-            MessageKind.CREATE_TEMP_QUEUE,
-            operationId);
+            name,
+            null,
+            null,
+            null,
+            null,
+            MessageKind.UNSUBSCRIBE);
 
     // Use session GUID as sequence identifier, to guarantee proper message serialization
     String sequenceId = localGuid.replace('-', '_');
-    String tempQueueCreateMessage = JSON.stringify(tempQueueCreateDescriptor);
-
-    connection.getLsClient().sendMessage(tempQueueCreateMessage, sequenceId, -1, null, true);
-
-    try {
-      // Wait for the callback
-      wait();
-    } catch (InterruptedException ie) {
-      log.error("Exception while waiting for a temporary queue creation: " + ie.getMessage(), ie);
-      throw new JMSException(
-          "Exception while waiting for a temporary queue creation: " + ie.getMessage());
-    }
+    String unsubscribeMessage = JSON.stringify(unsubscribeDescriptor);
 
-    if (tempQueueExceptionType != null) {
-      switch (tempQueueExceptionType) {
-        case "GENERIC_EXCEPTION":
-          throw new JMSException(tempQueueExceptionReason, tempQueueExceptionErrorCode);
+    connection.getLsClient().sendMessage(unsubscribeMessage, sequenceId, -1, null, true);
+  }
 
-        default:
-          break;
-      }
-    }
+  /////////////////////////////////////////////////////////////////////////
+  // Internals
 
-    return tempQueue;
-  }
+  private <T> CompletableFuture<T> createTemporaryDestination(
+      MessageKind kind, String description, Function<String, T> destinationFactory) {
 
-  @Override
-  public synchronized TemporaryTopic createTemporaryTopic() throws JMSException {
-    tempTopic = null;
-    tempTopicExceptionReason = null;
-    tempTopicExceptionErrorCode = null;
+    CompletableFuture<T> creation = new CompletableFuture<T>();
 
     // Compute operation ID
     String operationId = UUID.randomUUID().toString();
 
-    // Store operation outcome callback
+    // Store operation outcome callback, creations are told apart by their operation ID
     connection.addOutcomeCallback(
         operationId,
         new OutcomeCallback() {
           public void callback(String outcome) {
-            synchronized (LSSessionImpl.this) {
-              tempTopic = new LSTemporaryTopic(LSSessionImpl.this, outcome);
-
-              // Signal the thread waiting for the callback
-              LSSessionImpl.this.notify();
+            // The creation may have been cancelled or timed out in the meantime
+            if (!creation.isDone()) {
+              creation.complete(destinationFactory.apply(outcome));
             }
           }
 
           public void onException(
               String exceptionType, String exceptionReason, String exceptionErrorCode) {
-            synchronized (LSSessionImpl.this) {
-              tempTopicExceptionType = exceptionType;
-              tempTopicExceptionReason = exceptionReason;
-              tempTopicExceptionErrorCode = exceptionErrorCode;
+            creation.completeExceptionally(new JMSException(exceptionReason, exceptionErrorCode));
+          }
+        });
 
-              // Signal the thread waiting for the callback
-              LSSessionImpl.this.notify();
-            }
+    long timeout = connection.getTemporaryDestinationTimeout();
+    if (timeout > 0) {
+      // Timeouts run on the shared scheduler, no thread waits for the outcome
+      ScheduledFuture<?> timer =
+          LSScheduler.schedule(
+              () ->
+                  creation.completeExceptionally(
+                      new JMSException("Timeout while waiting for a " + description + " creation")),
+              timeout);
+
+      creation.whenComplete((destination, error) -> timer.cancel(false));
+    }
+
+    // Withdraw the outcome callback if no outcome has been received
+    creation.whenComplete(
+        (destination, error) -> {
+          if (error != null) {
+            connection.removeOutcomeCallback(operationId);
           }
         });
 
-    MessageDescriptor tempTopicCreateDescriptor =
+    MessageDescriptor createDescriptor =
         new MessageDescriptor(
             connection.getJmsConnector(),
             connection.getClientID(),
             localGuid,
 
-            // Must always be QUEUE, if we say TOPIC it could be created on the shared session
+            // Must always be QUEUE, if we say TOPIC a temporary topic
+            // could be created on the shared session
             DestinationType.QUEUE,
             null,
 
             // Specify ack mode, in case this is the first message for the session
             acknowledgeMode,
-            MessageKind.CREATE_TEMP_TOPIC,
+            kind,
             operationId);
 
     // Use session GUID as sequence identifier, to guarantee proper message serialization
     String sequenceId = localGuid.replace('-', '_');
-    String tempTopicCreateMessage = JSON.stringify(tempTopicCreateDescriptor);
+    String createMessage = JSON.stringify(createDescriptor);
 
-    connection.getLsClient().sendMessage(tempTopicCreateMessage, sequenceId, -1, null, true);
+    connection.getLsClient().sendMessage(createMessage, sequenceId, -1, null, true);
 
-    try {
-      // Wait for the callback
-      wait();
-    } catch (InterruptedException ie) {
-      log.error("Exception while waiting for a temporary topic creation: " + ie.getMessage(), ie);
-      throw new JMSException(
-          "Exception while waiting for a temporary topic creation: " + ie.getMessage());
-    }
+    return creation;
+  }
 
-    if (tempTopicExceptionType != null) {
-      switch (tempTopicExceptionType) {
-        case "GENERIC_EXCEPTION":
-          throw new JMSException(tempTopicExceptionReason, tempTopicExceptionErrorCode);
+  private <T> T awaitTemporaryDestination(CompletableFuture<T> creation, String description)
+      throws JMSException {
 
-        default:
-          break;
-      }
-    }
+    try {
+      // The creation times out on its own, if a timeout is configured
+      return creation.get();
+    } catch (InterruptedException ie) {
+      creation.cancel(false);
 
-    return tempTopic;
-  }
+      log.error(
+          "Exception while waiting for a " + description + " creation: " + ie.getMessage(), ie);
 
-  @Override
-  public synchronized void unsubscribe(String name) throws JMSException {
-    MessageDescriptor unsubscribeDescriptor =
-        new MessageDescriptor(
-            connection.getJmsConnector(),
-            connection.getClientID(),
-            localGuid,
-            DestinationType.TOPIC,
-            null,
-            name,
-            null,
-            null,
-            null,
-            null,
-            MessageKind.UNSUBSCRIBE);
+      // Restore the interrupted status for the caller
+      Thread.currentThread().interrupt();
 
-    // Use session GUID as sequence identifier, to guarantee proper message serialization
-    String sequenceId = localGuid.replace('-', '_');
-    String unsubscribeMessage = JSON.stringify(unsubscribeDescriptor);
+      throw new JMSException(
+          "Exception while waiting for a " + description + " creation: " + ie.getMessage());
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof JMSException) {
+        JMSException failure = (JMSException) cause;
+
+        // Rethrow on the calling thread, keeping the original failure as linked exception
+        JMSException jmse = new JMSException(failure.getMessage(), failure.getErrorCode());
+        jmse.setLinkedException(failure);
+        throw jmse;
+      }
 
-    connection.getLsClient().sendMessage(unsubscribeMessage, sequenceId, -1, null, true);
+      log.error("Exception while creating a " + description + ": " + cause.getMessage(), cause);
+      throw new JMSException(
+          "Exception while creating a " + description + ": " + cause.getMessage());
+    }
   }
 }
@@ -123,6 +123,7 @@ public class LSTopicConnectionFactory extends LSConnectionFactory
 
     // Create the JMS connection that wraps the client
     LSTopicConnection connection = new LSTopicConnection(lsClient, getJmsConnector(), true);
+    configure(connection);
     return connection;
   }
 
@@ -177,6 +178,7 @@ public class LSTopicConnectionFactory extends LSConnectionFactory
 
     // Create the JMS connection that wraps the client
     LSTopicConnection connection = new LSTopicConnection(lsClient, getJmsConnector(), true);
+    configure(connection);
     return connection;
   }
 }
@@ -15,11 +15,12 @@
  */
 package com.lightstreamer.jms;
 
+import javax.jms.InvalidSelectorException;
 import javax.jms.JMSException;
 import javax.jms.Topic;
 import javax.jms.TopicSubscriber;
 
-class LSTopicSubscriber extends LSMessageConsumer implements TopicSubscriber {
+class LSTopicSubscriber extends LSMessageConsumerImpl implements TopicSubscriber {
 
   /////////////////////////////////////////////////////////////////////////
   // Initialization
@@ -31,7 +32,8 @@ class LSTopicSubscriber extends LSMessageConsumer implements TopicSubscriber {
       boolean durable,
       boolean noLocal,
       boolean shared,
-      String selector) {
+      String selector)
+      throws InvalidSelectorException {
     super(session, destination, subscriptionName, durable, noLocal, shared, selector);
   }
 
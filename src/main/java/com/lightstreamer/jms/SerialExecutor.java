@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms;
+
+import com.lightstreamer.log.LogManager;
+import com.lightstreamer.log.Logger;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+class SerialExecutor implements Executor {
+
+  private static final Logger log = LogManager.getLogger("lightstreamer.jms.dispatch");
+
+  private final Executor executor;
+  private final Queue<Runnable> tasks;
+  private Runnable active;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  SerialExecutor(Executor executor) {
+    this.executor = executor;
+    this.tasks = new ArrayDeque<Runnable>();
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Executor interface
+
+  @Override
+  public void execute(Runnable task) {
+    Runnable next = null;
+    synchronized (this) {
+      tasks.offer(task);
+
+      // Tasks are submitted one at a time, the next one
+      // will be submitted when the active one completes
+      if (active != null) {
+        return;
+      }
+
+      next = active = tasks.poll();
+    }
+
+    submit(next);
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Internals
+
+  private void scheduleNext() {
+    Runnable next = null;
+    synchronized (this) {
+      next = active = tasks.poll();
+    }
+
+    if (next != null) {
+      submit(next);
+    }
+  }
+
+  private void submit(Runnable task) {
+    try {
+      executor.execute(
+          () -> {
+            try {
+              task.run();
+            } finally {
+              scheduleNext();
+            }
+          });
+
+    } catch (RejectedExecutionException ree) {
+      log.warn("Dispatch executor rejected a task, running the pending ones on the calling thread");
+
+      // Run the task anyway, or the following ones would never be scheduled,
+      // looping over the backlog rather than recurring through submit
+      runPending(task);
+    }
+  }
+
+  private void runPending(Runnable task) {
+    Runnable next = task;
+    while (next != null) {
+      try {
+        next.run();
+      } catch (RuntimeException re) {
+        log.error("Exception while running a dispatched task: " + re.getMessage(), re);
+
+      } catch (Throwable t) {
+        // Hand over the backlog before propagating errors,
+        // or the following tasks would never be scheduled
+        scheduleNext();
+        throw t;
+      }
+
+      synchronized (this) {
+        next = active = tasks.poll();
+      }
+    }
+  }
+}
@@ -15,8 +15,6 @@
  */
 package com.lightstreamer.jms.descriptors;
 
-import java.util.Map;
-
 public class MessageDescriptor extends Descriptor {
 
   private String replyDestinationType;
@@ -43,7 +41,7 @@ public class MessageDescriptor extends Descriptor {
 
   private String correlationId;
 
-  private Map<String, Object> messageProperties;
+  private Object messageProperties;
 
   private String classFqn;
 
@@ -228,7 +226,7 @@ public class MessageDescriptor extends Descriptor {
       long timeToLive,
       String type,
       String correlationId,
-      Map<String, Object> messageProperties) {
+      Object messageProperties) {
 
     this(
         dataAdapterName,
@@ -283,7 +281,7 @@ public class MessageDescriptor extends Descriptor {
       Long timeToLive,
       String type,
       String correlationId,
-      Map<String, Object> messageProperties,
+      Object messageProperties,
       String classFQN,
       Object payload) {
 
@@ -401,7 +399,7 @@ public class MessageDescriptor extends Descriptor {
     this.correlationId = correlationId;
   }
 
-  public Map<String, Object> getMessageProperties() {
+  public Object getMessageProperties() {
     return messageProperties;
   }
 
@@ -0,0 +1,533 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms.selector;
+
+import java.util.Set;
+import javax.jms.JMSException;
+
+abstract class Expression {
+
+  // Static types, as far as they can be determined at compile time
+  static final int ANY_TYPE = 0;
+  static final int BOOLEAN_TYPE = 1;
+  static final int NUMERIC_TYPE = 2;
+  static final int STRING_TYPE = 3;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  abstract int getStaticType();
+
+  // Evaluates the expression, leaving the result in the frame's register.
+  // An unknown boolean value is represented as a null value.
+  abstract void evaluate(Frame frame) throws JMSException;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Literals and identifiers
+
+  static final class Literal extends Expression {
+
+    private final int type;
+    private final boolean booleanValue;
+    private final long longValue;
+    private final double doubleValue;
+    private final String stringValue;
+
+    private Literal(
+        int type, boolean booleanValue, long longValue, double doubleValue, String stringValue) {
+      this.type = type;
+      this.booleanValue = booleanValue;
+      this.longValue = longValue;
+      this.doubleValue = doubleValue;
+      this.stringValue = stringValue;
+    }
+
+    static Literal ofBoolean(boolean value) {
+      return new Literal(Frame.BOOLEAN, value, 0, 0, null);
+    }
+
+    static Literal ofLong(long value) {
+      return new Literal(Frame.LONG, false, value, 0, null);
+    }
+
+    static Literal ofDouble(double value) {
+      return new Literal(Frame.DOUBLE, false, 0, value, null);
+    }
+
+    static Literal ofString(String value) {
+      return new Literal(Frame.STRING, false, 0, 0, value);
+    }
+
+    @Override
+    int getStaticType() {
+      switch (type) {
+        case Frame.BOOLEAN:
+          return BOOLEAN_TYPE;
+
+        case Frame.STRING:
+          return STRING_TYPE;
+
+        default:
+          return NUMERIC_TYPE;
+      }
+    }
+
+    @Override
+    void evaluate(Frame frame) {
+      frame.type = type;
+      frame.booleanValue = booleanValue;
+      frame.longValue = longValue;
+      frame.doubleValue = doubleValue;
+      frame.stringValue = stringValue;
+    }
+  }
+
+  static final class Identifier extends Expression {
+
+    private final int slot;
+
+    Identifier(int slot) {
+      this.slot = slot;
+    }
+
+    @Override
+    int getStaticType() {
+      return ANY_TYPE;
+    }
+
+    @Override
+    void evaluate(Frame frame) throws JMSException {
+      frame.load(slot);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Logical operators
+
+  static final class Not extends Expression {
+
+    private final Expression operand;
+
+    Not(Expression operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    int getStaticType() {
+      return BOOLEAN_TYPE;
+    }
+
+    @Override
+    void evaluate(Frame frame) throws JMSException {
+      operand.evaluate(frame);
+
+      // Not unknown is unknown
+      if (frame.type == Frame.BOOLEAN) {
+        frame.booleanValue = !frame.booleanValue;
+      } else {
+        frame.setNull();
+      }
+    }
+  }
+
+  static final class And extends Expression {
+
+    private final Expression left;
+    private final Expression right;
+
+    And(Expression left, Expression right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    int getStaticType() {
+      return BOOLEAN_TYPE;
+    }
+
+    @Override
+    void evaluate(Frame frame) throws JMSException {
+      left.evaluate(frame);
+      if ((frame.type == Frame.BOOLEAN) && !frame.booleanValue) {
+        return;
+      }
+
+      boolean leftUnknown = (frame.type != Frame.BOOLEAN);
+
+      right.evaluate(frame);
+      if ((frame.type == Frame.BOOLEAN) && !frame.booleanValue) {
+        return;
+      }
+
+      // True and unknown is unknown
+      if (leftUnknown || (frame.type != Frame.BOOLEAN)) {
+        frame.setNull();
+      } else {
+        frame.setBoolean(true);
+      }
+    }
+  }
+
+  static final class Or extends Expression {
+
+    private final Expression left;
+    private final Expression right;
+
+    Or(Expression left, Expression right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    int getStaticType() {
+      return BOOLEAN_TYPE;
+    }
+
+    @Override
+    void evaluate(Frame frame) throws JMSException {
+      left.evaluate(frame);
+      if ((frame.type == Frame.BOOLEAN) && frame.booleanValue) {
+        return;
+      }
+
+      boolean leftUnknown = (frame.type != Frame.BOOLEAN);
+
+      right.evaluate(frame);
+      if ((frame.type == Frame.BOOLEAN) && frame.booleanValue) {
+        return;
+      }
+
+      // False or unknown is unknown
+      if (leftUnknown || (frame.type != Frame.BOOLEAN)) {
+        frame.setNull();
+      } else {
+        frame.setBoolean(false);
+      }
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Comparison operators
+
+  static final class Comparison extends Expression {
+
+    static final int EQ = 0;
+    static final int NE = 1;
+    static final int LT = 2;
+    static final int LE = 3;
+    static final int GT = 4;
+    static final int GE = 5;
+
+    private final int operator;
+    private final Expression left;
+    private final Expression right;
+
+    Comparison(int operator, Expression left, Expression right) {
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    int getStaticType() {
+      return BOOLEAN_TYPE;
+    }
+
+    @Override
+    void evaluate(Frame frame) throws JMSException {
+      left.evaluate(frame);
+      if (frame.type == Frame.NULL) {
+        return;
+      }
+
+      // Save the left value in locals, the register is reused by the right operand
+      int leftType = frame.type;
+      boolean leftBoolean = frame.booleanValue;
+      long leftLong = frame.longValue;
+      double leftDouble = frame.numericAsDouble();
+      String leftString = frame.stringValue;
+
+      right.evaluate(frame);
+      if (frame.type == Frame.NULL) {
+        return;
+      }
+
+      int rightType = frame.type;
+      if ((leftType == Frame.LONG) && (rightType == Frame.LONG)) {
+        frame.setBoolean(compare(Long.compare(leftLong, frame.longValue)));
+
+      } else if (((leftType == Frame.LONG) || (leftType == Frame.DOUBLE)) && frame.isNumeric()) {
+        frame.setBoolean(compare(Double.compare(leftDouble, frame.numericAsDouble())));
+
+      } else if ((leftType == Frame.STRING) && (rightType == Frame.STRING)) {
+        frame.setBoolean(equality(leftString.equals(frame.stringValue)));
+
+      } else if ((leftType == Frame.BOOLEAN) && (rightType == Frame.BOOLEAN)) {
+        frame.setBoolean(equality(leftBoolean == frame.booleanValue));
+
+      } else {
+        // Values of different types never compare
+        frame.setBoolean(false);
+      }
+    }
+
+    static boolean isEquality(int operator) {
+      return (operator == EQ) || (operator == NE);
+    }
+
+    private boolean compare(int result) {
+      switch (operator) {
+        case EQ:
+          return result == 0;
+
+        case NE:
+          return result != 0;
+
+        case LT:
+          return result < 0;
+
+        case LE:
+          return result <= 0;
+
+        case GT:
+          return result > 0;
+
+        default:
+          return result >= 0;
+      }
+    }
+
+    private boolean equality(boolean equal) {
+      // Strings and booleans only support equality operators
+      switch (operator) {
+        case EQ:
+          return equal;
+
+        case NE:
+          return !equal;
+
+        default:
+          return false;
+      }
+    }
+  }
+
+  static final class Like extends Expression {
+
+    private final Expression operand;
+    private final LikePattern pattern;
+    private final boolean negated;
+
+    Like(Expression operand, LikePattern pattern, boolean negated) {
+      this.operand = operand;
+      this.pattern = pattern;
+      this.negated = negated;
+    }
+
+    @Override
+    int getStaticType() {
+      return BOOLEAN_TYPE;
+    }
+
+    @Override
+    void evaluate(Frame frame) throws JMSException {
+      operand.evaluate(frame);
+      if (frame.type == Frame.NULL) {
+        return;
+      }
+
+      if (frame.type != Frame.STRING) {
+        frame.setBoolean(false);
+      } else {
+        frame.setBoolean(pattern.matches(frame.stringValue) != negated);
+      }
+    }
+  }
+
+  static final class In extends Expression {
+
+    private final Expression operand;
+    private final Set<String> values;
+    private final boolean negated;
+
+    In(Expression operand, Set<String> values, boolean negated) {
+      this.operand = operand;
+      this.values = values;
+      this.negated = negated;
+    }
+
+    @Override
+    int getStaticType() {
+      return BOOLEAN_TYPE;
+    }
+
+    @Override
+    void evaluate(Frame frame) throws JMSException {
+      operand.evaluate(frame);
+      if (frame.type == Frame.NULL) {
+        return;
+      }
+
+      if (frame.type != Frame.STRING) {
+        frame.setBoolean(false);
+      } else {
+        frame.setBoolean(values.contains(frame.stringValue) != negated);
+      }
+    }
+  }
+
+  static final class IsNull extends Expression {
+
+    private final Expression operand;
+    private final boolean negated;
+
+    IsNull(Expression operand, boolean negated) {
+      this.operand = operand;
+      this.negated = negated;
+    }
+
+    @Override
+    int getStaticType() {
+      return BOOLEAN_TYPE;
+    }
+
+    @Override
+    void evaluate(Frame frame) throws JMSException {
+      operand.evaluate(frame);
+
+      // Never unknown
+      frame.setBoolean((frame.type == Frame.NULL) != negated);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Arithmetic operators
+
+  static final class Arithmetic extends Expression {
+
+    static final int ADD = 0;
+    static final int SUBTRACT = 1;
+    static final int MULTIPLY = 2;
+    static final int DIVIDE = 3;
+
+    private final int operator;
+    private final Expression left;
+    private final Expression right;
+
+    Arithmetic(int operator, Expression left, Expression right) {
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    int getStaticType() {
+      return NUMERIC_TYPE;
+    }
+
+    @Override
+    void evaluate(Frame frame) throws JMSException {
+      left.evaluate(frame);
+      if (!frame.isNumeric()) {
+        frame.setNull();
+        return;
+      }
+
+      int leftType = frame.type;
+      long leftLong = frame.longValue;
+      double leftDouble = frame.numericAsDouble();
+
+      right.evaluate(frame);
+      if (!frame.isNumeric()) {
+        frame.setNull();
+        return;
+      }
+
+      // Numeric promotion as in Java
+      if ((leftType == Frame.LONG) && (frame.type == Frame.LONG)) {
+        long rightLong = frame.longValue;
+        switch (operator) {
+          case ADD:
+            frame.setLong(leftLong + rightLong);
+            break;
+
+          case SUBTRACT:
+            frame.setLong(leftLong - rightLong);
+            break;
+
+          case MULTIPLY:
+            frame.setLong(leftLong * rightLong);
+            break;
+
+          default:
+            if (rightLong == 0) {
+              frame.setNull();
+            } else {
+              frame.setLong(leftLong / rightLong);
+            }
+            break;
+        }
+
+      } else {
+        double rightDouble = frame.numericAsDouble();
+        switch (operator) {
+          case ADD:
+            frame.setDouble(leftDouble + rightDouble);
+            break;
+
+          case SUBTRACT:
+            frame.setDouble(leftDouble - rightDouble);
+            break;
+
+          case MULTIPLY:
+            frame.setDouble(leftDouble * rightDouble);
+            break;
+
+          default:
+            frame.setDouble(leftDouble / rightDouble);
+            break;
+        }
+      }
+    }
+  }
+
+  static final class Negate extends Expression {
+
+    private final Expression operand;
+
+    Negate(Expression operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    int getStaticType() {
+      return NUMERIC_TYPE;
+    }
+
+    @Override
+    void evaluate(Frame frame) throws JMSException {
+      operand.evaluate(frame);
+
+      if (frame.type == Frame.LONG) {
+        frame.longValue = -frame.longValue;
+      } else if (frame.type == Frame.DOUBLE) {
+        frame.doubleValue = -frame.doubleValue;
+      } else {
+        frame.setNull();
+      }
+    }
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms.selector;
+
+import java.util.Arrays;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+final class Frame {
+
+  // Runtime value types
+  static final int NULL = 0;
+  static final int BOOLEAN = 1;
+  static final int LONG = 2;
+  static final int DOUBLE = 3;
+  static final int STRING = 4;
+
+  // Identifier kinds, resolved at compile time
+  static final int PROPERTY = 0;
+  static final int JMS_DELIVERY_MODE = 1;
+  static final int JMS_PRIORITY = 2;
+  static final int JMS_MESSAGE_ID = 3;
+  static final int JMS_TIMESTAMP = 4;
+  static final int JMS_CORRELATION_ID = 5;
+  static final int JMS_TYPE = 6;
+
+  // Result register, written by each evaluated expression
+  int type;
+  boolean booleanValue;
+  long longValue;
+  double doubleValue;
+  String stringValue;
+
+  private final String[] identifiers;
+  private final int[] identifierKinds;
+
+  // Identifier values, resolved at most once per evaluation
+  private final boolean[] resolved;
+  private final int[] slotTypes;
+  private final boolean[] slotBooleans;
+  private final long[] slotLongs;
+  private final double[] slotDoubles;
+  private final String[] slotStrings;
+
+  private Message message;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  Frame(String[] identifiers, int[] identifierKinds) {
+    this.identifiers = identifiers;
+    this.identifierKinds = identifierKinds;
+
+    int slots = identifiers.length;
+    this.resolved = new boolean[slots];
+    this.slotTypes = new int[slots];
+    this.slotBooleans = new boolean[slots];
+    this.slotLongs = new long[slots];
+    this.slotDoubles = new double[slots];
+    this.slotStrings = new String[slots];
+  }
+
+  static int kindOf(String identifier) {
+    switch (identifier) {
+      case "JMSDeliveryMode":
+        return JMS_DELIVERY_MODE;
+
+      case "JMSPriority":
+        return JMS_PRIORITY;
+
+      case "JMSMessageID":
+        return JMS_MESSAGE_ID;
+
+      case "JMSTimestamp":
+        return JMS_TIMESTAMP;
+
+      case "JMSCorrelationID":
+        return JMS_CORRELATION_ID;
+
+      case "JMSType":
+        return JMS_TYPE;
+
+      default:
+        return PROPERTY;
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  void reset(Message message) {
+    this.message = message;
+    Arrays.fill(resolved, false);
+  }
+
+  void release() {
+    // Avoid retaining the message, and its string values, after evaluation
+    message = null;
+    stringValue = null;
+    Arrays.fill(slotStrings, null);
+  }
+
+  void load(int slot) throws JMSException {
+    if (!resolved[slot]) {
+      resolve(slot);
+      resolved[slot] = true;
+    }
+
+    type = slotTypes[slot];
+    booleanValue = slotBooleans[slot];
+    longValue = slotLongs[slot];
+    doubleValue = slotDoubles[slot];
+    stringValue = slotStrings[slot];
+  }
+
+  void setNull() {
+    type = NULL;
+  }
+
+  void setBoolean(boolean value) {
+    type = BOOLEAN;
+    booleanValue = value;
+  }
+
+  void setLong(long value) {
+    type = LONG;
+    longValue = value;
+  }
+
+  void setDouble(double value) {
+    type = DOUBLE;
+    doubleValue = value;
+  }
+
+  void setString(String value) {
+    if (value == null) {
+      type = NULL;
+    } else {
+      type = STRING;
+      stringValue = value;
+    }
+  }
+
+  boolean isNumeric() {
+    return (type == LONG) || (type == DOUBLE);
+  }
+
+  double numericAsDouble() {
+    return (type == LONG) ? longValue : doubleValue;
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Internals
+
+  private void resolve(int slot) throws JMSException {
+    switch (identifierKinds[slot]) {
+      case JMS_DELIVERY_MODE:
+        resolveString(
+            slot,
+            (message.getJMSDeliveryMode() == DeliveryMode.PERSISTENT)
+                ? "PERSISTENT"
+                : "NON_PERSISTENT");
+        break;
+
+      case JMS_PRIORITY:
+        resolveLong(slot, message.getJMSPriority());
+        break;
+
+      case JMS_MESSAGE_ID:
+        resolveString(slot, message.getJMSMessageID());
+        break;
+
+      case JMS_TIMESTAMP:
+        resolveLong(slot, message.getJMSTimestamp());
+        break;
+
+      case JMS_CORRELATION_ID:
+        resolveString(slot, message.getJMSCorrelationID());
+        break;
+
+      case JMS_TYPE:
+        resolveString(slot, message.getJMSType());
+        break;
+
+      default:
+        resolveObject(slot, message.getObjectProperty(identifiers[slot]));
+        break;
+    }
+  }
+
+  private void resolveObject(int slot, Object value) {
+    // Property values are already boxed, classify them without further allocations
+    if ((value instanceof Integer)
+        || (value instanceof Long)
+        || (value instanceof Short)
+        || (value instanceof Byte)) {
+      resolveLong(slot, ((Number) value).longValue());
+
+    } else if ((value instanceof Double) || (value instanceof Float)) {
+      slotTypes[slot] = DOUBLE;
+      slotDoubles[slot] = ((Number) value).doubleValue();
+
+    } else if (value instanceof String) {
+      resolveString(slot, (String) value);
+
+    } else if (value instanceof Boolean) {
+      slotTypes[slot] = BOOLEAN;
+      slotBooleans[slot] = ((Boolean) value).booleanValue();
+
+    } else {
+      slotTypes[slot] = NULL;
+    }
+  }
+
+  private void resolveLong(int slot, long value) {
+    slotTypes[slot] = LONG;
+    slotLongs[slot] = value;
+  }
+
+  private void resolveString(int slot, String value) {
+    slotTypes[slot] = (value != null) ? STRING : NULL;
+    slotStrings[slot] = value;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms.selector;
+
+final class LikePattern {
+
+  private static final byte LITERAL = 0;
+  private static final byte ANY_CHAR = 1;
+  private static final byte ANY_SEQUENCE = 2;
+
+  private final char[] chars;
+  private final byte[] kinds;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  private LikePattern(char[] chars, byte[] kinds) {
+    this.chars = chars;
+    this.kinds = kinds;
+  }
+
+  // Returns null if the pattern ends with a dangling escape character
+  static LikePattern compile(String pattern, char escape, boolean hasEscape) {
+    char[] chars = new char[pattern.length()];
+    byte[] kinds = new byte[pattern.length()];
+
+    int length = 0;
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+
+      if (hasEscape && (c == escape)) {
+        if (++i == pattern.length()) {
+          return null;
+        }
+
+        chars[length] = pattern.charAt(i);
+        kinds[length++] = LITERAL;
+
+      } else if (c == '%') {
+        // Consecutive sequence wildcards are equivalent to a single one
+        if ((length == 0) || (kinds[length - 1] != ANY_SEQUENCE)) {
+          kinds[length++] = ANY_SEQUENCE;
+        }
+
+      } else if (c == '_') {
+        kinds[length++] = ANY_CHAR;
+
+      } else {
+        chars[length] = c;
+        kinds[length++] = LITERAL;
+      }
+    }
+
+    char[] compiledChars = new char[length];
+    byte[] compiledKinds = new byte[length];
+    System.arraycopy(chars, 0, compiledChars, 0, length);
+    System.arraycopy(kinds, 0, compiledKinds, 0, length);
+
+    return new LikePattern(compiledChars, compiledKinds);
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  boolean matches(String value) {
+    int valueIndex = 0;
+    int patternIndex = 0;
+
+    // Position of the last sequence wildcard, to backtrack to on a mismatch
+    int wildcardIndex = -1;
+    int wildcardValueIndex = 0;
+
+    while (valueIndex < value.length()) {
+      if ((patternIndex < kinds.length)
+          && ((kinds[patternIndex] == ANY_CHAR)
+              || ((kinds[patternIndex] == LITERAL)
+                  && (chars[patternIndex] == value.charAt(valueIndex))))) {
+        valueIndex++;
+        patternIndex++;
+
+      } else if ((patternIndex < kinds.length) && (kinds[patternIndex] == ANY_SEQUENCE)) {
+        wildcardIndex = patternIndex++;
+        wildcardValueIndex = valueIndex;
+
+      } else if (wildcardIndex >= 0) {
+        // Let the last sequence wildcard absorb one more character
+        patternIndex = wildcardIndex + 1;
+        valueIndex = ++wildcardValueIndex;
+
+      } else {
+        return false;
+      }
+    }
+
+    // Trailing sequence wildcards match the empty string
+    while ((patternIndex < kinds.length) && (kinds[patternIndex] == ANY_SEQUENCE)) {
+      patternIndex++;
+    }
+
+    return patternIndex == kinds.length;
+  }
+}
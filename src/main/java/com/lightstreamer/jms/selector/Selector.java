@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms.selector;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.jms.InvalidSelectorException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * A compiled JMS message selector, able to evaluate the SQL92 conditional expression syntax defined
+ * by the JMS specification against a {@link javax.jms.Message}.
+ *
+ * <p>Identifiers are resolved to numbered slots at compile time, and each evaluation resolves any
+ * of them at most once. Evaluation follows the three-valued logic of the specification: a selector
+ * whose value is unknown does not match.
+ *
+ * <p>Instances are immutable and may be shared across threads.
+ */
+public final class Selector {
+
+  private final String expression;
+  private final Expression root;
+  private final String[] identifiers;
+  private final int[] identifierKinds;
+
+  // Frames are reused across evaluations on the same thread
+  private final ThreadLocal<Frame> frames;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  private Selector(String expression, Expression root, List<String> identifiers) {
+    this.expression = expression;
+    this.root = root;
+    this.identifiers = identifiers.toArray(new String[identifiers.size()]);
+
+    this.identifierKinds = new int[this.identifiers.length];
+    for (int i = 0; i < this.identifiers.length; i++) {
+      identifierKinds[i] = Frame.kindOf(this.identifiers[i]);
+    }
+
+    this.frames = ThreadLocal.withInitial(() -> new Frame(this.identifiers, this.identifierKinds));
+  }
+
+  /**
+   * Compiles the specified message selector.
+   *
+   * @param expression the message selector expression
+   * @return the compiled selector
+   * @throws InvalidSelectorException if the expression is not a valid message selector
+   */
+  public static Selector compile(String expression) throws InvalidSelectorException {
+    if (expression == null) {
+      throw new InvalidSelectorException("Selector can't be null");
+    }
+
+    SelectorParser parser = new SelectorParser(expression);
+    Expression root = parser.parse();
+
+    return new Selector(expression, root, parser.getIdentifiers());
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Operations
+
+  /**
+   * Returns the message selector expression this selector has been compiled from.
+   *
+   * @return the message selector expression
+   */
+  public String getExpression() {
+    return expression;
+  }
+
+  /**
+   * Evaluates the selector against the specified message.
+   *
+   * @param message the message to be evaluated
+   * @return {@code true} if the selector evaluates to true for the message, {@code false} if it
+   *     evaluates to false or unknown
+   * @throws JMSException if the message headers or properties can't be read
+   */
+  public boolean matches(Message message) throws JMSException {
+    Frame frame = frames.get();
+    frame.reset(message);
+    try {
+      root.evaluate(frame);
+      return (frame.type == Frame.BOOLEAN) && frame.booleanValue;
+
+    } finally {
+      frame.release();
+    }
+  }
+
+  /**
+   * Returns the identifiers referenced by this selector, i.e. the message headers and properties it
+   * is evaluated on, in order of first occurrence.
+   *
+   * @return the identifiers referenced by this selector
+   */
+  public List<String> getIdentifiers() {
+    return Collections.unmodifiableList(Arrays.asList(identifiers));
+  }
+
+  @Override
+  public String toString() {
+    return expression;
+  }
+}
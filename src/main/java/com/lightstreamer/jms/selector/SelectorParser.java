@@ -0,0 +1,595 @@
+/*
+ * Copyright (C) 2020 Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.jms.selector;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.jms.InvalidSelectorException;
+
+final class SelectorParser {
+
+  // Token types
+  private static final int EOF = 0;
+  private static final int IDENTIFIER = 1;
+  private static final int STRING = 2;
+  private static final int EXACT = 3;
+  private static final int APPROXIMATE = 4;
+  private static final int OPERATOR = 5;
+  private static final int KEYWORD = 6;
+
+  private final String selector;
+
+  // Identifiers found so far, in order of first appearance
+  private final List<String> identifiers;
+
+  // Current token
+  private int position;
+  private int tokenStart;
+  private int tokenType;
+  private String tokenText;
+
+  /////////////////////////////////////////////////////////////////////////
+  // Initialization
+
+  SelectorParser(String selector) {
+    this.selector = selector;
+    this.identifiers = new ArrayList<String>();
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Package private operations
+
+  Expression parse() throws InvalidSelectorException {
+    nextToken();
+
+    Expression expression = parseOr();
+    if (tokenType != EOF) {
+      throw error("Unexpected '" + tokenText + "'");
+    }
+
+    checkBoolean(expression);
+    return expression;
+  }
+
+  List<String> getIdentifiers() {
+    return identifiers;
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Grammar
+
+  private Expression parseOr() throws InvalidSelectorException {
+    Expression left = parseAnd();
+    while (acceptKeyword("OR")) {
+      Expression right = parseAnd();
+      left = new Expression.Or(checkBoolean(left), checkBoolean(right));
+    }
+
+    return left;
+  }
+
+  private Expression parseAnd() throws InvalidSelectorException {
+    Expression left = parseNot();
+    while (acceptKeyword("AND")) {
+      Expression right = parseNot();
+      left = new Expression.And(checkBoolean(left), checkBoolean(right));
+    }
+
+    return left;
+  }
+
+  private Expression parseNot() throws InvalidSelectorException {
+    if (acceptKeyword("NOT")) {
+      return new Expression.Not(checkBoolean(parseNot()));
+    }
+
+    return parsePredicate();
+  }
+
+  private Expression parsePredicate() throws InvalidSelectorException {
+    Expression left = parseSum();
+
+    if (tokenType == OPERATOR) {
+      int operator = comparisonOperator(tokenText);
+      if (operator >= 0) {
+        nextToken();
+        Expression right = parseSum();
+        checkComparable(operator, left, right);
+        return new Expression.Comparison(operator, left, right);
+      }
+    }
+
+    if (acceptKeyword("IS")) {
+      boolean negated = acceptKeyword("NOT");
+      expectKeyword("NULL");
+      return new Expression.IsNull(left, negated);
+    }
+
+    boolean negated = acceptKeyword("NOT");
+
+    if (acceptKeyword("BETWEEN")) {
+      Expression low = parseSum();
+      expectKeyword("AND");
+      Expression high = parseSum();
+
+      checkNumeric(left);
+      checkNumeric(low);
+      checkNumeric(high);
+
+      // The operand is evaluated twice, identifiers are resolved just once anyway
+      Expression between =
+          new Expression.And(
+              new Expression.Comparison(Expression.Comparison.GE, left, low),
+              new Expression.Comparison(Expression.Comparison.LE, left, high));
+
+      return negated ? new Expression.Not(between) : between;
+    }
+
+    if (acceptKeyword("IN")) {
+      checkString(left);
+      expectOperator("(");
+
+      Set<String> values = new HashSet<String>();
+      do {
+        values.add(expectString());
+      } while (acceptOperator(","));
+
+      expectOperator(")");
+      return new Expression.In(left, values, negated);
+    }
+
+    if (acceptKeyword("LIKE")) {
+      checkString(left);
+      String pattern = expectString();
+
+      char escape = 0;
+      boolean hasEscape = false;
+      if (acceptKeyword("ESCAPE")) {
+        String escapeText = expectString();
+        if (escapeText.length() != 1) {
+          throw error("Escape must be a single character");
+        }
+
+        escape = escapeText.charAt(0);
+        hasEscape = true;
+      }
+
+      LikePattern likePattern = LikePattern.compile(pattern, escape, hasEscape);
+      if (likePattern == null) {
+        throw error("Pattern ends with the escape character");
+      }
+
+      return new Expression.Like(left, likePattern, negated);
+    }
+
+    if (negated) {
+      throw error("Expected BETWEEN, IN or LIKE after NOT");
+    }
+
+    return left;
+  }
+
+  private Expression parseSum() throws InvalidSelectorException {
+    Expression left = parseProduct();
+    while (true) {
+      int operator;
+      if (acceptOperator("+")) {
+        operator = Expression.Arithmetic.ADD;
+      } else if (acceptOperator("-")) {
+        operator = Expression.Arithmetic.SUBTRACT;
+      } else {
+        return left;
+      }
+
+      Expression right = parseProduct();
+      left = new Expression.Arithmetic(operator, checkNumeric(left), checkNumeric(right));
+    }
+  }
+
+  private Expression parseProduct() throws InvalidSelectorException {
+    Expression left = parseUnary();
+    while (true) {
+      int operator;
+      if (acceptOperator("*")) {
+        operator = Expression.Arithmetic.MULTIPLY;
+      } else if (acceptOperator("/")) {
+        operator = Expression.Arithmetic.DIVIDE;
+      } else {
+        return left;
+      }
+
+      Expression right = parseUnary();
+      left = new Expression.Arithmetic(operator, checkNumeric(left), checkNumeric(right));
+    }
+  }
+
+  private Expression parseUnary() throws InvalidSelectorException {
+    if (acceptOperator("-")) {
+      // Fold negative literals, so that the minimum long value can be expressed
+      if (tokenType == EXACT) {
+        return Expression.Literal.ofLong(parseExact("-" + tokenText, true));
+      }
+
+      return new Expression.Negate(checkNumeric(parseUnary()));
+    }
+
+    if (acceptOperator("+")) {
+      return checkNumeric(parseUnary());
+    }
+
+    return parsePrimary();
+  }
+
+  private Expression parsePrimary() throws InvalidSelectorException {
+    switch (tokenType) {
+      case IDENTIFIER:
+        {
+          int slot = identifiers.indexOf(tokenText);
+          if (slot < 0) {
+            slot = identifiers.size();
+            identifiers.add(tokenText);
+          }
+
+          nextToken();
+          return new Expression.Identifier(slot);
+        }
+
+      case STRING:
+        return Expression.Literal.ofString(expectString());
+
+      case EXACT:
+        return Expression.Literal.ofLong(parseExact(tokenText, false));
+
+      case APPROXIMATE:
+        {
+          String text = tokenText;
+          nextToken();
+          try {
+            return Expression.Literal.ofDouble(Double.parseDouble(text));
+          } catch (NumberFormatException nfe) {
+            throw error("Invalid numeric literal " + text);
+          }
+        }
+
+      case KEYWORD:
+        if (acceptKeyword("TRUE")) {
+          return Expression.Literal.ofBoolean(true);
+        } else if (acceptKeyword("FALSE")) {
+          return Expression.Literal.ofBoolean(false);
+        }
+        break;
+
+      case OPERATOR:
+        if (acceptOperator("(")) {
+          Expression expression = parseOr();
+          expectOperator(")");
+          return expression;
+        }
+        break;
+
+      default:
+        break;
+    }
+
+    throw error(
+        (tokenType == EOF) ? "Unexpected end of selector" : "Unexpected '" + tokenText + "'");
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Type checks
+
+  private Expression checkBoolean(Expression expression) throws InvalidSelectorException {
+    int type = expression.getStaticType();
+    if ((type != Expression.BOOLEAN_TYPE) && (type != Expression.ANY_TYPE)) {
+      throw error("Boolean expression expected");
+    }
+
+    return expression;
+  }
+
+  private Expression checkNumeric(Expression expression) throws InvalidSelectorException {
+    int type = expression.getStaticType();
+    if ((type != Expression.NUMERIC_TYPE) && (type != Expression.ANY_TYPE)) {
+      throw error("Numeric expression expected");
+    }
+
+    return expression;
+  }
+
+  private Expression checkString(Expression expression) throws InvalidSelectorException {
+    int type = expression.getStaticType();
+    if ((type != Expression.STRING_TYPE) && (type != Expression.ANY_TYPE)) {
+      throw error("String expression expected");
+    }
+
+    return expression;
+  }
+
+  private void checkComparable(int operator, Expression left, Expression right)
+      throws InvalidSelectorException {
+
+    int leftType = left.getStaticType();
+    int rightType = right.getStaticType();
+
+    if ((leftType != Expression.ANY_TYPE)
+        && (rightType != Expression.ANY_TYPE)
+        && (leftType != rightType)) {
+      throw error("Values of different types can't be compared");
+    }
+
+    // Strings and booleans only support equality operators
+    if (!Expression.Comparison.isEquality(operator)
+        && ((leftType == Expression.STRING_TYPE)
+            || (leftType == Expression.BOOLEAN_TYPE)
+            || (rightType == Expression.STRING_TYPE)
+            || (rightType == Expression.BOOLEAN_TYPE))) {
+      throw error("Only = and <> can compare strings and booleans");
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////
+  // Tokens
+
+  private boolean acceptKeyword(String keyword) {
+    if ((tokenType == KEYWORD) && tokenText.equals(keyword)) {
+      nextToken();
+      return true;
+    }
+
+    return false;
+  }
+
+  private void expectKeyword(String keyword) throws InvalidSelectorException {
+    if (!acceptKeyword(keyword)) {
+      throw error("Expected " + keyword);
+    }
+  }
+
+  private boolean acceptOperator(String operator) {
+    if ((tokenType == OPERATOR) && tokenText.equals(operator)) {
+      nextToken();
+      return true;
+    }
+
+    return false;
+  }
+
+  private void expectOperator(String operator) throws InvalidSelectorException {
+    if (!acceptOperator(operator)) {
+      throw error("Expected '" + operator + "'");
+    }
+  }
+
+  private String expectString() throws InvalidSelectorException {
+    if (tokenType != STRING) {
+      throw error("String literal expected");
+    }
+
+    String text = tokenText;
+    nextToken();
+    return text;
+  }
+
+  private long parseExact(String text, boolean consume) throws InvalidSelectorException {
+    String digits = text;
+    if (digits.endsWith("L") || digits.endsWith("l")) {
+      digits = digits.substring(0, digits.length() - 1);
+    }
+
+    boolean negative = digits.startsWith("-");
+    if (negative) {
+      digits = digits.substring(1);
+    }
+
+    try {
+      long value;
+      if (digits.startsWith("0x") || digits.startsWith("0X")) {
+        value = Long.parseLong((negative ? "-" : "") + digits.substring(2), 16);
+      } else if ((digits.length() > 1) && digits.startsWith("0")) {
+        value = Long.parseLong((negative ? "-" : "") + digits.substring(1), 8);
+      } else {
+        value = Long.parseLong((negative ? "-" : "") + digits);
+      }
+
+      nextToken();
+      return value;
+
+    } catch (NumberFormatException nfe) {
+      throw error("Invalid numeric literal " + text);
+    }
+  }
+
+  private void nextToken() {
+    // Skip white space
+    while ((position < selector.length()) && Character.isWhitespace(selector.charAt(position))) {
+      position++;
+    }
+
+    tokenStart = position;
+    if (position == selector.length()) {
+      tokenType = EOF;
+      tokenText = "";
+      return;
+    }
+
+    char c = selector.charAt(position);
+
+    if (Character.isJavaIdentifierStart(c)) {
+      while ((position < selector.length())
+          && Character.isJavaIdentifierPart(selector.charAt(position))) {
+        position++;
+      }
+
+      tokenText = selector.substring(tokenStart, position);
+
+      // Keywords are case insensitive
+      String upperCase = tokenText.toUpperCase();
+      switch (upperCase) {
+        case "NOT":
+        case "AND":
+        case "OR":
+        case "BETWEEN":
+        case "LIKE":
+        case "IN":
+        case "IS":
+        case "NULL":
+        case "TRUE":
+        case "FALSE":
+        case "ESCAPE":
+          tokenType = KEYWORD;
+          tokenText = upperCase;
+          break;
+
+        default:
+          tokenType = IDENTIFIER;
+          break;
+      }
+
+    } else if (c == '\'') {
+      // Quotes are escaped by doubling them
+      StringBuilder text = new StringBuilder();
+      position++;
+      while (true) {
+        if (position == selector.length()) {
+          // Unterminated literal, let the parser fail on it
+          tokenType = OPERATOR;
+          tokenText = "'";
+          return;
+        }
+
+        char next = selector.charAt(position++);
+        if (next == '\'') {
+          if ((position < selector.length()) && (selector.charAt(position) == '\'')) {
+            text.append('\'');
+            position++;
+          } else {
+            break;
+          }
+        } else {
+          text.append(next);
+        }
+      }
+
+      tokenType = STRING;
+      tokenText = text.toString();
+
+    } else if (Character.isDigit(c)
+        || ((c == '.')
+            && (position + 1 < selector.length())
+            && Character.isDigit(selector.charAt(position + 1)))) {
+      scanNumber();
+
+    } else {
+      // Two-character operators first
+      String operator = selector.substring(position, Math.min(position + 2, selector.length()));
+      if (operator.equals("<>") || operator.equals("<=") || operator.equals(">=")) {
+        position += 2;
+      } else {
+        operator = String.valueOf(c);
+        position++;
+      }
+
+      tokenType = OPERATOR;
+      tokenText = operator;
+    }
+  }
+
+  private void scanNumber() {
+    boolean approximate = false;
+
+    if ((selector.charAt(position) == '0')
+        && (position + 1 < selector.length())
+        && ((selector.charAt(position + 1) == 'x') || (selector.charAt(position + 1) == 'X'))) {
+      position += 2;
+      while ((position < selector.length())
+          && (Character.digit(selector.charAt(position), 16) >= 0)) {
+        position++;
+      }
+
+    } else {
+      while ((position < selector.length()) && Character.isDigit(selector.charAt(position))) {
+        position++;
+      }
+
+      if ((position < selector.length()) && (selector.charAt(position) == '.')) {
+        approximate = true;
+        position++;
+        while ((position < selector.length()) && Character.isDigit(selector.charAt(position))) {
+          position++;
+        }
+      }
+
+      if ((position < selector.length())
+          && ((selector.charAt(position) == 'e') || (selector.charAt(position) == 'E'))) {
+        approximate = true;
+        position++;
+        if ((position < selector.length())
+            && ((selector.charAt(position) == '+') || (selector.charAt(position) == '-'))) {
+          position++;
+        }
+        while ((position < selector.length()) && Character.isDigit(selector.charAt(position))) {
+          position++;
+        }
+      }
+    }
+
+    // Type suffixes
+    if (position < selector.length()) {
+      char suffix = selector.charAt(position);
+      if ((suffix == 'l') || (suffix == 'L')) {
+        position++;
+      } else if ((suffix == 'f') || (suffix == 'F') || (suffix == 'd') || (suffix == 'D')) {
+        approximate = true;
+        position++;
+      }
+    }
+
+    tokenType = approximate ? APPROXIMATE : EXACT;
+    tokenText = selector.substring(tokenStart, position);
+  }
+
+  private InvalidSelectorException error(String reason) {
+    return new InvalidSelectorException(
+        "Invalid selector \"" + selector + "\": " + reason + " at position " + tokenStart);
+  }
+
+  private static int comparisonOperator(String operator) {
+    switch (operator) {
+      case "=":
+        return Expression.Comparison.EQ;
+
+      case "<>":
+        return Expression.Comparison.NE;
+
+      case "<":
+        return Expression.Comparison.LT;
+
+      case "<=":
+        return Expression.Comparison.LE;
+
+      case ">":
+        return Expression.Comparison.GT;
+
+      case ">=":
+        return Expression.Comparison.GE;
+
+      default:
+        return -1;
+    }
+  }
+}
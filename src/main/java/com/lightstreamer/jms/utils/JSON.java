@@ -17,14 +17,22 @@ package com.lightstreamer.jms.utils;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonGenerator.Feature;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.RawValue;
 import com.lightstreamer.log.LogManager;
 import com.lightstreamer.log.Logger;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.Map;
+import javax.jms.JMSException;
 
 public class JSON {
 
@@ -59,6 +67,72 @@ public class JSON {
     }
   }
 
+  public static ObjectWriter writerFor(Class<?> clazz) {
+    return mapper.writerFor(clazz);
+  }
+
+  public static ObjectReader readerFor(Class<?> clazz) {
+    return mapper.readerFor(clazz);
+  }
+
+  public static Object stringifyAsRawValue(Object object, ObjectWriter writer) {
+    try {
+      // The result is embedded verbatim when the enclosing object is stringified
+      return new RawValue(writer.writeValueAsString(object));
+    } catch (IOException ioe) {
+      log.error("I/O exception while stringifying object to JSON: " + ioe.getMessage(), ioe);
+      return null;
+    }
+  }
+
+  public static Object stringifyMapAsRawValue(ConvertibleMap map) {
+    try {
+      // Values are written straight from the map storage, by their own type
+      StringWriter jsonWriter = new StringWriter();
+      JsonGenerator generator = factory.createGenerator(jsonWriter);
+      generator.writeStartObject();
+
+      for (Map.Entry<String, Object> entry : map.asMap().entrySet()) {
+        generator.writeFieldName(entry.getKey());
+        writeMapValue(generator, entry.getValue());
+      }
+
+      generator.writeEndObject();
+      generator.close();
+      return new RawValue(jsonWriter.toString());
+    } catch (IOException ioe) {
+      log.error("I/O exception while stringifying map to JSON: " + ioe.getMessage(), ioe);
+      return null;
+    }
+  }
+
+  public static ConvertibleMap parseAsConvertibleMap(String json) {
+    try (JsonParser parser = factory.createParser(json)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "Expected a JSON object");
+      }
+
+      // Values are stored straight into the map, typed by their JSON token
+      ConvertibleMap map = new ConvertibleMap();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        readMapValue(parser, parser.nextToken(), map, name);
+      }
+
+      if (parser.getCurrentToken() != JsonToken.END_OBJECT) {
+        throw new JsonParseException(parser, "Unexpected JSON object field");
+      }
+
+      return map;
+    } catch (IOException ioe) {
+      log.error("I/O exception while parsing JSON as map: " + ioe.getMessage(), ioe);
+      return null;
+    } catch (JMSException jmse) {
+      log.error("JMS exception while parsing JSON as map: " + jmse.getMessage(), jmse);
+      return null;
+    }
+  }
+
   public static Map<String, Object> parseAsMap(String json) {
     try {
       return mapper.readValue(
@@ -72,12 +146,85 @@ public class JSON {
     }
   }
 
-  public static Object parse(String json, Class<?> clazz) {
+  public static Object parse(String json, ObjectReader reader) {
     try {
-      return mapper.readValue(json, clazz);
+      return reader.readValue(json);
     } catch (IOException ioe) {
       log.error("I/O exception while parsing JSON as object: " + ioe.getMessage(), ioe);
       return null;
     }
   }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // Internals
+
+  private static void writeMapValue(JsonGenerator generator, Object value) throws IOException {
+    if (value instanceof String) {
+      generator.writeString((String) value);
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      generator.writeNumber(((Number) value).intValue());
+    } else if (value instanceof Long) {
+      generator.writeNumber(((Long) value).longValue());
+    } else if (value instanceof Double) {
+      generator.writeNumber(((Double) value).doubleValue());
+    } else if (value instanceof Float) {
+      generator.writeNumber(((Float) value).floatValue());
+    } else if (value instanceof Boolean) {
+      generator.writeBoolean(((Boolean) value).booleanValue());
+    } else if (value instanceof Character) {
+      generator.writeString(value.toString());
+    } else if (value instanceof byte[]) {
+      generator.writeBinary((byte[]) value);
+    } else if (value == null) {
+      generator.writeNull();
+    } else {
+      throw new IOException("Unsupported map value of type " + value.getClass());
+    }
+  }
+
+  private static void readMapValue(
+      JsonParser parser, JsonToken token, ConvertibleMap map, String name)
+      throws IOException, JMSException {
+
+    switch (token) {
+      case VALUE_STRING:
+        map.setString(name, parser.getText());
+        break;
+
+      case VALUE_NUMBER_INT:
+        // JSON carries no byte, short or float type: as before, keep the narrowest
+        // type the number fits in, as a generic map would
+        switch (parser.getNumberType()) {
+          case INT:
+            map.setInt(name, parser.getIntValue());
+            break;
+
+          case LONG:
+            map.setLong(name, parser.getLongValue());
+            break;
+
+          default:
+            // Out of long range, keep it as an approximate value rather than fail the whole map
+            map.setDouble(name, parser.getDoubleValue());
+            break;
+        }
+        break;
+
+      case VALUE_NUMBER_FLOAT:
+        map.setDouble(name, parser.getDoubleValue());
+        break;
+
+      case VALUE_TRUE:
+      case VALUE_FALSE:
+        map.setBoolean(name, token == JsonToken.VALUE_TRUE);
+        break;
+
+      case VALUE_NULL:
+        map.setString(name, null);
+        break;
+
+      default:
+        throw new JsonParseException(parser, "Unsupported value for " + name + ": " + token);
+    }
+  }
 }